@@ -8,6 +8,7 @@ import android.os.Bundle;
 import android.util.Log;
 import android.widget.TextView;
 
+import com.shellware.flypadhelper.FlypadAxisRemapper;
 import com.shellware.flypadhelper.FlypadHelper;
 import com.shellware.flypadhelper.FlypadInfo;
 import com.shellware.flypadhelper.FlypadInfo.FlypadAxisAction;
@@ -16,7 +17,6 @@ import com.shellware.flypadhelper.FlypadInfo.FlypadButtonMapping;
 import com.shellware.flypadhelper.FlypadInfo.FlypadButtonState;
 import com.shellware.flypadhelper.FlypadListener;
 
-import java.util.ArrayList;
 import java.util.Locale;
 
 import androidx.annotation.NonNull;
@@ -35,7 +35,7 @@ public class MainActivity extends AppCompatActivity implements FlypadListener {
 
     private SharedPreferences prefs;
     private FlypadHelper flypadHelper = null;
-    private ArrayList<FlypadAxisMapping> axisMappings = null;
+    private final float[] controls = new float[FlypadAxisRemapper.OUTPUT_SIZE];
 
     private TextView yawLabel;
     private TextView gazLabel;
@@ -85,7 +85,7 @@ public class MainActivity extends AppCompatActivity implements FlypadListener {
 
         super.onResume();
 
-        final FlypadInfo fpi = new FlypadInfo(this, flypadHelper);
+        final FlypadInfo fpi = flypadHelper.getFlypadInfo();
 
         SharedPreferences.Editor edit = prefs.edit();
 
@@ -99,26 +99,25 @@ public class MainActivity extends AppCompatActivity implements FlypadListener {
 
         edit.apply();
 
-        fpi.refreshMappings();
-        axisMappings = fpi.getAxisMappings();
-
-        // update our axes labels with mapping results
-        for (FlypadAxisMapping axis : fpi.getAxisMappings()) {
-            switch (axis.getAction()) {
-                case ROLL:
-                    rollLabel.setText("roll (" + axis.getTitle() + ")");
-                    break;
-                case PITCH:
-                    pitchLabel.setText("pitch (" + axis.getTitle() + ")");
-                    break;
-                case YAW:
-                    yawLabel.setText("yaw (" + axis.getTitle() + ")");
-                    break;
-                case GAZ:
-                    gazLabel.setText("gaz (" + axis.getTitle() + ")");
-                    break;
+        // update our axes labels with mapping results once they are rebuilt off the main thread
+        fpi.refreshMappingsAsync(() -> {
+            for (FlypadAxisMapping axis : fpi.getAxisMappings()) {
+                switch (axis.getAction()) {
+                    case ROLL:
+                        rollLabel.setText("roll (" + axis.getTitle() + ")");
+                        break;
+                    case PITCH:
+                        pitchLabel.setText("pitch (" + axis.getTitle() + ")");
+                        break;
+                    case YAW:
+                        yawLabel.setText("yaw (" + axis.getTitle() + ")");
+                        break;
+                    case GAZ:
+                        gazLabel.setText("gaz (" + axis.getTitle() + ")");
+                        break;
+                }
             }
-        }
+        });
 
         flypadHelper.addFlypadListener(this);
 
@@ -185,13 +184,22 @@ public class MainActivity extends AppCompatActivity implements FlypadListener {
     public void onFlypadAxisValuesChanged(final FlypadHelper flypadHelper, float leftX, float leftY, float rightX, float rightY) {
         Log.d(CLASS_NAME, "onFlypadAxisValuesChanged lx=" + leftX + " ly=" + leftY + " rx=" + rightX + " ry=" + rightY);
         
-        final float[] values = remapAxesBasedOnMappings(leftX, leftY, rightX, rightY);
-        lastX = values[0];
+        // the helper's remapper follows mapping changes, fetch it per event rather than caching it
+        flypadHelper.getFlypadInfo().getAxisRemapper().remap(leftX, leftY, rightX, rightY, controls);
+
+        if (flypadHelper.getFlypadInfo().isMappedYawButtonPressed()) {
+            // special handling if yaw is overriden via a button mapping
+            // in this case you could assign yaw to whatever the last value
+            // of X was according to the mapped button
+            controls[FlypadAxisAction.YAW.ordinal()] = lastX;
+        }
+
+        lastX = controls[FlypadAxisAction.YAW.ordinal()];
 
         yaw.setText(String.format(Locale.US, "%.5f", lastX));
-        gaz.setText(String.format(Locale.US, "%.5f", values[1]));
-        roll.setText(String.format(Locale.US, "%.5f", values[2]));
-        pitch.setText(String.format(Locale.US, "%.5f", values[3]));
+        gaz.setText(String.format(Locale.US, "%.5f", controls[FlypadAxisAction.GAZ.ordinal()]));
+        roll.setText(String.format(Locale.US, "%.5f", controls[FlypadAxisAction.ROLL.ordinal()]));
+        pitch.setText(String.format(Locale.US, "%.5f", controls[FlypadAxisAction.PITCH.ordinal()]));
     }
 
     @Override
@@ -244,113 +252,6 @@ public class MainActivity extends AppCompatActivity implements FlypadListener {
         }
     }
 
-    private float[] remapAxesBasedOnMappings(final float leftX, final float leftY, final float rightX, final float rightY) {
-
-        float yaw = leftX;
-        float gaz = leftY;
-        float roll = rightX;
-        float pitch = rightY;
-
-        // zero out any remapped axes
-        for (FlypadAxisMapping mapping : axisMappings) {
-            switch (mapping.getAxis()) {
-                case LEFT_X:
-                    if (mapping.getAction() != FlypadAxisAction.YAW) yaw = 0;
-                    break;
-                case LEFT_Y:
-                    if (mapping.getAction() != FlypadAxisAction.GAZ) gaz = 0;
-                    break;
-                case RIGHT_X:
-                    if (mapping.getAction() != FlypadAxisAction.ROLL) roll = 0;
-                    break;
-                case RIGHT_Y:
-                    if (mapping.getAction() != FlypadAxisAction.PITCH) pitch = 0;
-                    break;
-            }
-        }
-
-        // now move any that are remapped
-        for (FlypadAxisMapping mapping : axisMappings) {
-            switch (mapping.getAction()) {
-                case NO_ACTION:
-                    break;
-
-                case ROLL:
-                    switch (mapping.getAxis()) {
-                        case LEFT_X:
-                            roll = leftX;
-                            break;
-                        case LEFT_Y:
-                            roll = leftY;
-                            break;
-                        case RIGHT_Y:
-                            roll = rightY;
-                            break;
-                    }
-                    break;
-
-                case PITCH:
-                    switch (mapping.getAxis()) {
-                        case LEFT_X:
-                            pitch = leftX;
-                            break;
-                        case LEFT_Y:
-                            pitch = leftY;
-                            break;
-                        case RIGHT_X:
-                            pitch = rightX;
-                            break;
-                    }
-                    break;
-
-                case YAW:
-                    if (flypadHelper.getFlypadInfo().isMappedYawButtonPressed()) {
-                        // special handling if yaw is overriden via a button mapping
-                        // in this case you could assign yaw to whatever the last value
-                        // of X was according to the mapped button
-                        yaw = lastX;
-                        break;
-                    }
-
-                    switch (mapping.getAxis()) {
-                        case LEFT_Y:
-                            yaw = leftY;
-                            break;
-                        case RIGHT_X:
-                            yaw = rightX;
-                            break;
-                        case RIGHT_Y:
-                            yaw = rightY;
-                            break;
-                    }
-                    break;
-
-                case GAZ:
-                    switch (mapping.getAxis()) {
-                        case LEFT_X:
-                            gaz = leftX;
-                            break;
-                        case RIGHT_X:
-                            gaz = rightX;
-                            break;
-                        case RIGHT_Y:
-                            gaz = rightY;
-                            break;
-                    }
-                    break;
-
-                case CAMERA_PAN:
-                case CAMERA_TILT:
-                    //
-                    // camera pan and tilt handling belongs here
-                    //
-                    break;
-            }
-        }
-
-        return new float[]{yaw, gaz, roll, pitch};
-    }
-
     private void checkManifestPermissions() {
         // handle 6.0 on demand permissions
         boolean hasPermission =  (ContextCompat.checkSelfPermission(getApplicationContext(),
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the four axes of one report: normalize and {@code scaleFrom} per axis versus the axis lookup table,
+ * and conditioning with an expo curve evaluated per value versus compiled into the table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AxisDecodeBenchmark {
+
+    @Param({"FLIGHT", "IDLE"})
+    public ReportStreams.Profile profile;
+
+    // the ranges FlypadHelper used to scale with, kept as anonymous classes like the original
+    private final DoubleRange sourceRange = new DoubleRange() {
+        @Override
+        public double getLower() {
+            return -110;
+        }
+
+        @Override
+        public double getUpper() {
+            return 110;
+        }
+    };
+    private final DoubleRange targetRange = new DoubleRange() {
+        @Override
+        public double getLower() {
+            return -1;
+        }
+
+        @Override
+        public double getUpper() {
+            return 1;
+        }
+    };
+
+    private final FlypadAxisTable axisTable = new FlypadAxisTable();
+    private final FlypadAxisTable conditionedTable = new FlypadAxisTable();
+
+    private final FlypadAxisCurve curve = FlypadAxisCurve.LINEAR.withDeadZone(0.05).withExpo(0.4).withSuperRate(0.3);
+
+    private byte[][] reports;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        reports = ReportStreams.generate(profile);
+        conditionedTable.setCurves(curve);
+    }
+
+    @Benchmark
+    public float scaleFrom() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        return decodeAxis(report[5]) + decodeAxis(report[6]) + decodeAxis(report[3]) + decodeAxis(report[4]);
+    }
+
+    @Benchmark
+    public float axisTable() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        return axisTable.valueOf(FlypadAxis.LEFT_X, report[5]) + axisTable.valueOf(FlypadAxis.LEFT_Y, report[6]) + axisTable.valueOf(FlypadAxis.RIGHT_X, report[3]) + axisTable.valueOf(FlypadAxis.RIGHT_Y, report[4]);
+    }
+
+    @Benchmark
+    public float curveMath() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        return (float) (curve.apply(axisTable.valueOf(FlypadAxis.LEFT_X, report[5])) + curve.apply(axisTable.valueOf(FlypadAxis.LEFT_Y, report[6]))
+                        + curve.apply(axisTable.valueOf(FlypadAxis.RIGHT_X, report[3])) + curve.apply(axisTable.valueOf(FlypadAxis.RIGHT_Y, report[4])));
+    }
+
+    @Benchmark
+    public float conditionedTable() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        return conditionedTable.valueOf(FlypadAxis.LEFT_X, report[5]) + conditionedTable.valueOf(FlypadAxis.LEFT_Y, report[6])
+               + conditionedTable.valueOf(FlypadAxis.RIGHT_X, report[3]) + conditionedTable.valueOf(FlypadAxis.RIGHT_Y, report[4]);
+    }
+
+    // copy of the original FlypadHelper.decodeAxis
+    private float decodeAxis(final byte value) {
+        final int normal;
+
+        // normalize axis to range -127 to +127
+        if (value == -128) {
+            normal = 0;
+        } else {
+            if (value > -1) {
+                // left side
+                normal =  Math.abs(127 - value) * -1;
+            } else {
+                // right side
+                normal = value + 128;
+            }
+        }
+
+        // now scale it to float range -1 to +1
+        return (float) targetRange.scaleFrom(normal, sourceRange);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxisAction;
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxisMapping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remapping decoded axes to flight controls: the sample app's former remapAxesBasedOnMappings
+ * versus the compiled {@link FlypadAxisRemapper}. Run with the gc profiler to see the per event
+ * result array of the former.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AxisRemapBenchmark {
+
+    @Param({"FLIGHT"})
+    public ReportStreams.Profile profile;
+
+    private final FlypadAxisTable axisTable = new FlypadAxisTable();
+
+    private FlypadInfo flypadInfo;
+    private ArrayList<FlypadAxisMapping> axisMappings;
+    private float lastX;
+
+    private final float[] controls = new float[FlypadAxisRemapper.OUTPUT_SIZE];
+
+    private byte[][] reports;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        final InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+
+        // the sample app mappings, yaw and roll swapped
+        prefs.edit()
+             .putString("FLYPAD_RIGHT_X", FlypadAxisAction.YAW.name())
+             .putString("FLYPAD_LEFT_X", FlypadAxisAction.ROLL.name())
+             .apply();
+
+        flypadInfo = new FlypadInfo(prefs, null);
+        axisMappings = flypadInfo.getAxisMappings();
+
+        reports = ReportStreams.generate(profile);
+    }
+
+    @Benchmark
+    public float[] sampleRemap() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        return remapAxesBasedOnMappings(axisTable.valueOf(FlypadAxis.LEFT_X, report[5]), axisTable.valueOf(FlypadAxis.LEFT_Y, report[6]),
+                                        axisTable.valueOf(FlypadAxis.RIGHT_X, report[3]), axisTable.valueOf(FlypadAxis.RIGHT_Y, report[4]));
+    }
+
+    @Benchmark
+    public float[] compiledRemap() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        flypadInfo.remapAxes(axisTable.valueOf(FlypadAxis.LEFT_X, report[5]), axisTable.valueOf(FlypadAxis.LEFT_Y, report[6]),
+                             axisTable.valueOf(FlypadAxis.RIGHT_X, report[3]), axisTable.valueOf(FlypadAxis.RIGHT_Y, report[4]), controls);
+        return controls;
+    }
+
+    // copy of MainActivity.remapAxesBasedOnMappings from the sample app
+    private float[] remapAxesBasedOnMappings(final float leftX, final float leftY, final float rightX, final float rightY) {
+
+        float yaw = leftX;
+        float gaz = leftY;
+        float roll = rightX;
+        float pitch = rightY;
+
+        // zero out any remapped axes
+        for (FlypadAxisMapping mapping : axisMappings) {
+            switch (mapping.getAxis()) {
+                case LEFT_X:
+                    if (mapping.getAction() != FlypadAxisAction.YAW) yaw = 0;
+                    break;
+                case LEFT_Y:
+                    if (mapping.getAction() != FlypadAxisAction.GAZ) gaz = 0;
+                    break;
+                case RIGHT_X:
+                    if (mapping.getAction() != FlypadAxisAction.ROLL) roll = 0;
+                    break;
+                case RIGHT_Y:
+                    if (mapping.getAction() != FlypadAxisAction.PITCH) pitch = 0;
+                    break;
+            }
+        }
+
+        // now move any that are remapped
+        for (FlypadAxisMapping mapping : axisMappings) {
+            switch (mapping.getAction()) {
+                case NO_ACTION:
+                    break;
+
+                case ROLL:
+                    switch (mapping.getAxis()) {
+                        case LEFT_X:
+                            roll = leftX;
+                            break;
+                        case LEFT_Y:
+                            roll = leftY;
+                            break;
+                        case RIGHT_Y:
+                            roll = rightY;
+                            break;
+                    }
+                    break;
+
+                case PITCH:
+                    switch (mapping.getAxis()) {
+                        case LEFT_X:
+                            pitch = leftX;
+                            break;
+                        case LEFT_Y:
+                            pitch = leftY;
+                            break;
+                        case RIGHT_X:
+                            pitch = rightX;
+                            break;
+                    }
+                    break;
+
+                case YAW:
+                    if (flypadInfo.isMappedYawButtonPressed()) {
+                        yaw = lastX;
+                        break;
+                    }
+
+                    switch (mapping.getAxis()) {
+                        case LEFT_Y:
+                            yaw = leftY;
+                            break;
+                        case RIGHT_X:
+                            yaw = rightX;
+                            break;
+                        case RIGHT_Y:
+                            yaw = rightY;
+                            break;
+                    }
+                    break;
+
+                case GAZ:
+                    switch (mapping.getAxis()) {
+                        case LEFT_X:
+                            gaz = leftX;
+                            break;
+                        case RIGHT_X:
+                            gaz = rightX;
+                            break;
+                        case RIGHT_Y:
+                            gaz = rightY;
+                            break;
+                    }
+                    break;
+
+                case CAMERA_PAN:
+                case CAMERA_TILT:
+                    break;
+            }
+        }
+
+        return new float[]{yaw, gaz, roll, pitch};
+    }
+}
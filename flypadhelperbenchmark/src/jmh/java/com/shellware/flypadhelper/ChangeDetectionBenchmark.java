@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per report change detection: comparing decoded floats and booleans field by field the way
+ * FlypadInfo.setAxes and setButtons did, versus diffing packed state words in {@link FlypadInfo#setState}.
+ * Both variants include decoding the report. The field baseline leaves out the Bundle the
+ * original filled for every report, so it understates the old cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChangeDetectionBenchmark {
+
+    @Param({"FLIGHT", "IDLE", "MIXED"})
+    public ReportStreams.Profile profile;
+
+    private final FlypadReportDecoder decoder = new FlypadReportDecoder();
+    private final FlypadAxisTable axisTable = decoder.getAxisTable();
+
+    private FlypadInfo flypadInfo;
+
+    private byte[][] reports;
+    private int index;
+
+    private float axisLeftX, axisLeftY, axisRightX, axisRightY;
+    private final boolean[] buttons = new boolean[FlypadInfo.FlypadButton.values().length];
+
+    @Setup
+    public void setUp() {
+        reports = ReportStreams.generate(profile);
+        flypadInfo = new FlypadInfo(new InMemorySharedPreferences(), null);
+    }
+
+    @Benchmark
+    public int fieldCompare() {
+        final byte[] response = reports[index++ & (ReportStreams.LENGTH - 1)];
+        int changed = 0;
+
+        changed |= setAxes(axisTable.valueOf(FlypadAxis.LEFT_X, response[5]), axisTable.valueOf(FlypadAxis.LEFT_Y, response[6]),
+                           axisTable.valueOf(FlypadAxis.RIGHT_X, response[3]), axisTable.valueOf(FlypadAxis.RIGHT_Y, response[4]));
+
+        changed |= setButton(4, (response[1] & 16) == 16);
+        changed |= setButton(5, (response[1] & 8) == 8);
+        changed |= setButton(6, (response[1] & 1) == 1);
+        changed |= setButton(2, (response[1] & 2) == 2);
+        changed |= setButton(3, (response[1] & 4) == 4);
+        changed |= setButton(9, (response[2] & 1) == 1);
+        changed |= setButton(10, (response[1] & 64) == 64);
+        changed |= setButton(7, (response[1] & 128) == 128);
+        changed |= setButton(8, (response[1] & 32) == 32);
+        changed |= setButton(0, (response[2] & 2) == 2);
+        changed |= setButton(1, (response[2] & 4) == 4);
+
+        return changed;
+    }
+
+    @Benchmark
+    public int stateDiff() {
+        return flypadInfo.setState(decoder.decode(reports[index++ & (ReportStreams.LENGTH - 1)]));
+    }
+
+    private int setAxes(final float axisLeftX, final float axisLeftY, final float axisRightX, final float axisRightY) {
+        boolean changed = false;
+
+        if (axisLeftX != this.axisLeftX) {
+            this.axisLeftX = axisLeftX;
+            changed = true;
+        }
+
+        if (axisLeftY != this.axisLeftY) {
+            this.axisLeftY = axisLeftY;
+            changed = true;
+        }
+
+        if (axisRightX != this.axisRightX) {
+            this.axisRightX = axisRightX;
+            changed = true;
+        }
+
+        if (axisRightY != this.axisRightY) {
+            this.axisRightY = axisRightY;
+            changed = true;
+        }
+
+        return changed ? FlypadReportDecoder.CHANGED_AXES : 0;
+    }
+
+    private int setButton(final int ordinal, final boolean pressed) {
+        if (pressed == buttons[ordinal]) return 0;
+
+        buttons[ordinal] = pressed;
+        return 1 << (ordinal + FlypadReportDecoder.BUTTONS_SHIFT);
+    }
+}
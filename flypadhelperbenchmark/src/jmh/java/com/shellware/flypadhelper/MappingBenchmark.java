@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadButton;
+import com.shellware.flypadhelper.FlypadInfo.FlypadButtonAction;
+import com.shellware.flypadhelper.FlypadInfo.FlypadButtonMapping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping lookups done by listeners for every button event: mapping by button, pressed state by action
+ * and the title formatting, each against the linear scans over the mapping list they replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MappingBenchmark {
+
+    private static final FlypadButton[] BUTTONS = FlypadButton.values();
+    private static final FlypadButtonAction[] ACTIONS = FlypadButtonAction.values();
+
+    private final FlypadReportDecoder decoder = new FlypadReportDecoder();
+
+    private FlypadInfo flypadInfo;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        final InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+
+        // the sample app mappings, yaw on the bottom buttons
+        prefs.edit()
+             .putString("FLYPAD_LEFT_BOTTOM", FlypadButtonAction.YAW_LEFT.name())
+             .putString("FLYPAD_RIGHT_BOTTOM", FlypadButtonAction.YAW_RIGHT.name())
+             .apply();
+
+        flypadInfo = new FlypadInfo(prefs, null);
+
+        // hold A and the right bottom button
+        flypadInfo.setState(decoder.decode(new byte[] {87, 16 | 64, 0, -128, -128, -128, -128}));
+    }
+
+    @Benchmark
+    public FlypadButtonMapping mappingByButton() {
+        return flypadInfo.getButtonMappingByButton(BUTTONS[index++ % BUTTONS.length]);
+    }
+
+    @Benchmark
+    public FlypadButtonMapping mappingByButtonScan() {
+        final FlypadButton button = BUTTONS[index++ % BUTTONS.length];
+
+        for (FlypadButtonMapping mapping : flypadInfo.getButtonMappings()) {
+            if (mapping.getButton() == button) return mapping;
+        }
+
+        return null;
+    }
+
+    @Benchmark
+    public boolean pressedByAction() {
+        return flypadInfo.isButtonPressed(ACTIONS[index++ % ACTIONS.length]);
+    }
+
+    @Benchmark
+    public boolean pressedByActionScan() {
+        final FlypadButtonAction action = ACTIONS[index++ % ACTIONS.length];
+
+        for (FlypadButtonMapping mapping : flypadInfo.getButtonMappings()) {
+            if (mapping.getAction() == action && mapping.isPressed()) return true;
+        }
+
+        return false;
+    }
+
+    @Benchmark
+    public boolean mappedYawButtonPressed() {
+        return flypadInfo.isMappedYawButtonPressed();
+    }
+
+    @Benchmark
+    public String toProper() {
+        return FlypadHelper.toProper(ACTIONS[index++ % ACTIONS.length].name());
+    }
+}
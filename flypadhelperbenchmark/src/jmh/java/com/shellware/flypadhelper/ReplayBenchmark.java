@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode and change detection driven from a capture file at {@link FlypadReplay#MAX_SPEED},
+ * the way a recorded flight is replayed offline. Scores are per report and include reading
+ * the memory-mapped capture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReplayBenchmark {
+
+    @Param({"FLIGHT", "IDLE"})
+    public ReportStreams.Profile profile;
+
+    @Param({"false", "true"})
+    public boolean predict;
+
+    private final FlypadReportDecoder decoder = new FlypadReportDecoder();
+
+    private FlypadCaptureReader reader;
+    private FlypadInfo flypadInfo;
+    private FlypadAxisPredictor predictor;
+
+    private int changes;
+
+    private final FlypadReplay.ReportSink sink = (timestampNanos, report) -> {
+        final long state = predictor == null ? decoder.decode(report) : decoder.decode(report, predictor, timestampNanos);
+        if (flypadInfo.setState(state) != 0) changes++;
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        final File capture = ReportStreams.writeCapture(profile);
+
+        reader = new FlypadCaptureReader(capture);
+        flypadInfo = new FlypadInfo(new InMemorySharedPreferences(), null);
+        predictor = predict ? new FlypadAxisPredictor(20) : null;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ReportStreams.LENGTH)
+    public int replay() throws InterruptedException {
+        reader.rewind();
+        changes = 0;
+
+        new FlypadReplay(reader, FlypadReplay.MAX_SPEED).run(sink);
+        return changes;
+    }
+}
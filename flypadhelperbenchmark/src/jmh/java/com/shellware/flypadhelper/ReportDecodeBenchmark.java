@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Button extraction from one report: eleven mask tests versus the decoder lookup tables,
+ * plus a full report decode into the packed state word.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReportDecodeBenchmark {
+
+    @Param({"FLIGHT", "IDLE"})
+    public ReportStreams.Profile profile;
+
+    private final FlypadReportDecoder decoder = new FlypadReportDecoder();
+
+    private byte[][] reports;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        reports = ReportStreams.generate(profile);
+    }
+
+    // the expressions onCharacteristicChanged passed to FlypadInfo.setButtons
+    @Benchmark
+    public void buttonMasks(final Blackhole blackhole) {
+        final byte[] response = reports[index++ & (ReportStreams.LENGTH - 1)];
+
+        blackhole.consume((response[1] & 16) == 16);
+        blackhole.consume((response[1] & 8) == 8);
+        blackhole.consume((response[1] & 1) == 1);
+        blackhole.consume((response[1] & 2) == 2);
+        blackhole.consume((response[1] & 4) == 4);
+        blackhole.consume((response[2] & 1) == 1);
+        blackhole.consume((response[1] & 64) == 64);
+        blackhole.consume((response[1] & 128) == 128);
+        blackhole.consume((response[1] & 32) == 32);
+        blackhole.consume((response[2] & 2) == 2);
+        blackhole.consume((response[2] & 4) == 4);
+    }
+
+    @Benchmark
+    public int buttonTables() {
+        final byte[] report = reports[index++ & (ReportStreams.LENGTH - 1)];
+        return FlypadReportDecoder.getButtons(decoder.decode(report));
+    }
+
+    @Benchmark
+    public long decode() {
+        return decoder.decode(reports[index++ & (ReportStreams.LENGTH - 1)]);
+    }
+}
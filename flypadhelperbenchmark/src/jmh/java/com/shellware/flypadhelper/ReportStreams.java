@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Controller report streams for the benchmarks.
+ * <p>
+ * Shaped after notification streams seen while flying: reports every connection interval,
+ * stick sweeps carrying one count of sensor noise, stretches where the controller repeats
+ * the same report and short button taps. Generated from a fixed seed so runs are comparable.
+ */
+final class ReportStreams {
+
+    enum Profile {
+        FLIGHT,     // both sticks moving, occasional button taps
+        IDLE,       // controller on the table, the same report over and over
+        MIXED       // alternating flight and idle stretches
+    }
+
+    // power of two so benchmarks can wrap indexes with a mask
+    static final int LENGTH = 4096;
+
+    // reports arrive once per connection interval
+    static final long INTERVAL_NANOS = 10_000_000L;
+
+    private static final int IDLE_STRETCH = 256;
+
+    private ReportStreams() {
+    }
+
+    static byte[][] generate(final Profile profile) {
+        final Random random = new Random(0x5EED);
+        final byte[][] reports = new byte[LENGTH][];
+
+        int buttonHold = 0;
+        int byte1 = 0;
+        int byte2 = 0;
+
+        for (int i = 0; i < LENGTH; i++) {
+            final boolean idle = profile == Profile.IDLE
+                                 || (profile == Profile.MIXED && (i / IDLE_STRETCH) % 2 == 1);
+
+            if (idle) {
+                reports[i] = report(87, 0, 0, 0, 0, 0, 0);
+                continue;
+            }
+
+            final double t = i / 100.0;
+
+            // taps of a random button lasting 80 to 200 ms, roughly one per second
+            if (buttonHold > 0) {
+                buttonHold--;
+                if (buttonHold == 0) byte1 = byte2 = 0;
+            } else if (random.nextInt(100) == 0) {
+                buttonHold = 8 + random.nextInt(12);
+                final int bit = random.nextInt(11);
+                if (bit < 8) byte1 = 1 << bit; else byte2 = 1 << (bit - 8);
+            }
+
+            reports[i] = report(87 - i / 1024, byte1, byte2,
+                                sweep(t, 0.7, random), sweep(t, 0.45, random),
+                                sweep(t, 0.3, random), sweep(t, 0.9, random));
+        }
+
+        return reports;
+    }
+
+    /**
+     * Writes a generated stream to a temporary capture file, one report per {@link #INTERVAL_NANOS}.
+     * The file is deleted when the JVM exits.
+     */
+    static File writeCapture(final Profile profile) throws IOException {
+        final File file = File.createTempFile("flypad-" + profile.name().toLowerCase(), ".capture");
+        file.deleteOnExit();
+
+        try (FlypadCaptureWriter writer = new FlypadCaptureWriter(file)) {
+            final byte[][] reports = generate(profile);
+
+            for (int i = 0; i < reports.length; i++) {
+                // generating outruns the writer thread, which drops instead of blocking, so wait for a free buffer
+                while (!writer.record(i * INTERVAL_NANOS, reports[i])) Thread.yield();
+            }
+        }
+
+        return file;
+    }
+
+    // normalized stick position in [-127, 127] following a sine sweep plus one count of noise
+    private static int sweep(final double t, final double hertz, final Random random) {
+        final int position = (int) Math.round(Math.sin(2 * Math.PI * hertz * t) * 120) + random.nextInt(3) - 1;
+        return Math.max(-127, Math.min(127, position));
+    }
+
+    private static byte[] report(final int battery, final int byte1, final int byte2,
+                                 final int rightX, final int rightY, final int leftX, final int leftY) {
+        return new byte[] {
+                (byte) battery,
+                (byte) byte1,
+                (byte) byte2,
+                encodeAxis(rightX),
+                encodeAxis(rightY),
+                encodeAxis(leftX),
+                encodeAxis(leftY)
+        };
+    }
+
+    // inverse of the controller axis encoding, see FlypadAxisTable.normalize
+    static byte encodeAxis(final int normal) {
+        return (byte) (normal <= 0 ? 127 + normal : normal - 128);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowChoreographer;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures report to listener latency of each dispatch mode with the library's own latency metrics.
+ * <p>
+ * Reports of the flight stream are fed from a thread standing in for the GATT binder thread at the
+ * controller's report rate, while the test thread runs the main looper. Queued modes are measured up to
+ * {@link FlypadLatencyMetrics.Stage#LISTENER_RETURNED}, direct and raw listeners up to
+ * {@link FlypadLatencyMetrics.Stage#DIRECT_LISTENER_RETURNED}, and checked against percentile bounds.
+ * <p>
+ * The main looper and Choreographer run on Robolectric's synthetic clock, which the test advances in whole
+ * milliseconds to follow real time. Latencies are taken with {@link System#nanoTime()}, but queued modes include
+ * the pumping granularity and frames are not paced like a display's, so the bounds only catch regressions of
+ * a different order than what a device shows, they are no substitute for measuring on hardware.
+ * <p>
+ * Excluded from {@code test}, run with {@code ./gradlew :flypadhelperbenchmark:dispatchLatency}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DispatchLatencyBenchmark {
+
+    private static final int REPORTS = 2000;
+    private static final long REPORT_INTERVAL_MILLIS = 5;
+
+    private static final long FRAME_INTERVAL_NANOS = 16_666_667L;
+
+    // queued delivery waits for the main looper, direct delivery only for the listener
+    private static final long QUEUED_P50_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long QUEUED_P99_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long DIRECT_P50_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long DIRECT_P99_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final byte[][] reports = ReportStreams.generate(ReportStreams.Profile.FLIGHT);
+
+    private FlypadLoopbackTransport transport;
+    private FlypadHelper flypadHelper;
+
+    @Before
+    public void setUp() {
+        ShadowChoreographer.setFrameInterval(FRAME_INTERVAL_NANOS);
+
+        transport = new FlypadLoopbackTransport();
+        flypadHelper = new FlypadHelper(RuntimeEnvironment.getApplication(), transport);
+    }
+
+    @After
+    public void tearDown() {
+        flypadHelper.destroy();
+    }
+
+    @Test
+    public void mainThread() throws InterruptedException {
+        assertPercentiles(measure(FlypadListener.DispatchMode.MAIN_THREAD, FlypadLatencyMetrics.Stage.LISTENER_RETURNED),
+                          QUEUED_P50_NANOS, QUEUED_P99_NANOS);
+    }
+
+    @Test
+    public void frameAligned() throws InterruptedException {
+        assertPercentiles(measure(FlypadListener.DispatchMode.FRAME_ALIGNED, FlypadLatencyMetrics.Stage.LISTENER_RETURNED),
+                          QUEUED_P50_NANOS, QUEUED_P99_NANOS);
+    }
+
+    @Test
+    public void direct() throws InterruptedException {
+        assertPercentiles(measure(FlypadListener.DispatchMode.DIRECT, FlypadLatencyMetrics.Stage.DIRECT_LISTENER_RETURNED),
+                          DIRECT_P50_NANOS, DIRECT_P99_NANOS);
+    }
+
+    @Test
+    public void raw() throws InterruptedException {
+        flypadHelper.addFlypadRawListener((helper, state, changed, timestampNanos) -> { });
+
+        assertPercentiles(run(FlypadLatencyMetrics.Stage.DIRECT_LISTENER_RETURNED), DIRECT_P50_NANOS, DIRECT_P99_NANOS);
+    }
+
+    private FlypadLatencyHistogram measure(final FlypadListener.DispatchMode mode, final FlypadLatencyMetrics.Stage stage) throws InterruptedException {
+        flypadHelper.addFlypadListener(new FlypadListener() {
+            @Override
+            public void onFlypadStateChanged(final FlypadHelper flypadHelper, final State newState, final State oldState) {
+            }
+
+            @Override
+            public void onFlypadBatteryLevelChanged(final FlypadHelper flypadHelper, final short batteryLevel) {
+            }
+
+            @Override
+            public void onFlypadAxisValuesChanged(final FlypadHelper flypadHelper, final float leftX, final float leftY, final float rightX, final float rightY) {
+            }
+
+            @Override
+            public void onFlypadButtonChanged(final FlypadHelper flypadHelper, final FlypadInfo.FlypadButton button, final FlypadInfo.FlypadButtonState state) {
+            }
+        }, mode);
+
+        return run(stage);
+    }
+
+    private FlypadLatencyHistogram run(final FlypadLatencyMetrics.Stage stage) throws InterruptedException {
+        // the helper connects on its own thread
+        flypadHelper.startLeScan();
+
+        while (!flypadHelper.isConnected()) {
+            ShadowLooper.idleMainLooper();
+            Thread.sleep(1);
+        }
+
+        final Thread binder = new Thread(() -> {
+            try {
+                for (int i = 0; i < REPORTS; i++) {
+                    transport.onReport(System.nanoTime(), reports[i % reports.length]);
+                    Thread.sleep(REPORT_INTERVAL_MILLIS);
+                }
+            } catch (final InterruptedException ignored) {
+            }
+        }, "binder");
+
+        flypadHelper.getLatencyMetrics().reset();
+        binder.start();
+
+        // the looper clock only moves in whole milliseconds, advance it by what real time owes it
+        final long startNanos = System.nanoTime();
+        long advancedMillis = 0;
+
+        while (binder.isAlive()) {
+            final long dueMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            ShadowLooper.idleMainLooper(dueMillis - advancedMillis, TimeUnit.MILLISECONDS);
+            advancedMillis = dueMillis;
+        }
+        binder.join();
+
+        // let the last frame and posted runnables run
+        ShadowLooper.idleMainLooper(2 * TimeUnit.NANOSECONDS.toMillis(FRAME_INTERVAL_NANOS), TimeUnit.MILLISECONDS);
+
+        return flypadHelper.getLatencyMetrics().getHistogram(stage);
+    }
+
+    private static void assertPercentiles(final FlypadLatencyHistogram histogram, final long maxP50Nanos, final long maxP99Nanos) {
+        assertTrue("recorded no latency", histogram.getCount() > 0);
+        assertTrue("p50 too high: " + histogram, histogram.getP50() <= maxP50Nanos);
+        assertTrue("p99 too high: " + histogram, histogram.getP99() <= maxP99Nanos);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks how well {@link FlypadAxisPredictor} anticipates the stick.
+ * <p>
+ * For every report the predicted position is compared against the position actually measured one
+ * lead time later, next to the error of simply holding the current measurement. Errors are in stick
+ * counts over all four axes. The generated benchmark streams are checked against bounds, their arrival
+ * times carry up to one millisecond of jitter like BLE notifications but their stick motion is synthetic.
+ * <p>
+ * Captures written by {@link FlypadCaptureWriter} are checked on their recorded arrival times, prediction
+ * must beat holding the measurement, run with
+ * {@code ./gradlew :flypadhelperbenchmark:predictionError -Pcaptures=<capture file>[,<capture file>...]}.
+ */
+public class PredictionErrorTest {
+
+    private static final long INTERVAL_NANOS = ReportStreams.INTERVAL_NANOS;
+    private static final int[] AXIS_OFFSETS = {5, 6, 3, 4};
+
+    // leads of one to three report intervals
+    private static final int MAX_LEAD_REPORTS = 3;
+
+    // rms bounds of the flight stream indexed by lead reports - 1, held errors are about twice as large
+    private static final double[] MAX_FLIGHT_RMS = {2.5, 3.6, 5.3};
+
+    private static final String CAPTURES_PROPERTY = "flypad.captures";
+
+    @Test
+    public void flightPredictionBeatsHolding() {
+        final Error[][] errors = evaluate(generated(ReportStreams.Profile.FLIGHT), ReportStreams.generate(ReportStreams.Profile.FLIGHT));
+
+        for (int i = 0; i < MAX_LEAD_REPORTS; i++) {
+            final Error held = errors[i][0];
+            final Error predicted = errors[i][1];
+            final String message = describe("FLIGHT", i, held, predicted);
+
+            assertTrue(message, predicted.rms() < held.rms());
+            assertTrue(message, predicted.rms() <= MAX_FLIGHT_RMS[i]);
+        }
+    }
+
+    @Test
+    public void predictionDoesNotInventMotion() {
+        for (ReportStreams.Profile profile : new ReportStreams.Profile[] {ReportStreams.Profile.IDLE, ReportStreams.Profile.MIXED}) {
+            final Error[][] errors = evaluate(generated(profile), ReportStreams.generate(profile));
+
+            for (int i = 0; i < MAX_LEAD_REPORTS; i++) {
+                final Error held = errors[i][0];
+                final Error predicted = errors[i][1];
+
+                // idle stretches must stay where they are
+                assertTrue(describe(profile.name(), i, held, predicted), predicted.rms() <= held.rms());
+            }
+        }
+    }
+
+    @Test
+    public void capturesPredictionBeatsHolding() throws IOException {
+        final String captures = System.getProperty(CAPTURES_PROPERTY, "");
+        assumeTrue("no captures given", captures.length() > 0);
+
+        for (String path : captures.split(",")) {
+            final long[] timestamps;
+            final byte[][] reports;
+
+            try (FlypadCaptureReader reader = new FlypadCaptureReader(new File(path))) {
+                int count = 0;
+                while (reader.next()) if (reader.getReport().length >= FlypadReportDecoder.REPORT_LENGTH) count++;
+
+                timestamps = new long[count];
+                reports = new byte[count][];
+
+                reader.rewind();
+
+                for (int i = 0; reader.next(); ) {
+                    if (reader.getReport().length < FlypadReportDecoder.REPORT_LENGTH) continue;
+
+                    timestamps[i] = reader.getTimestampNanos();
+                    reports[i++] = reader.getReport().clone();
+                }
+            }
+
+            final Error[][] errors = evaluate(timestamps, reports);
+
+            for (int i = 0; i < MAX_LEAD_REPORTS; i++) {
+                assertTrue(describe(new File(path).getName(), i, errors[i][0], errors[i][1]), errors[i][1].rms() < errors[i][0].rms());
+            }
+        }
+    }
+
+    // arrival times of a generated stream, one interval apart with up to a millisecond of jitter
+    private static long[] generated(final ReportStreams.Profile profile) {
+        final long[] timestamps = new long[ReportStreams.LENGTH];
+        final Random jitter = new Random(0x5EED);
+
+        for (int i = 0; i < timestamps.length; i++) timestamps[i] = i * INTERVAL_NANOS + jitter.nextInt(1_000_000);
+
+        return timestamps;
+    }
+
+    // held and predicted errors indexed by lead reports - 1
+    private static Error[][] evaluate(final long[] timestamps, final byte[][] reports) {
+        final Error[][] errors = new Error[MAX_LEAD_REPORTS][];
+
+        for (int leadReports = 1; leadReports <= MAX_LEAD_REPORTS; leadReports++) {
+            final long lead = leadReports * INTERVAL_NANOS;
+
+            final Error held = new Error();
+            final Error predicted = new Error();
+
+            final FlypadAxisPredictor predictor = new FlypadAxisPredictor(lead / 1e6);
+
+            int future = 0;
+
+            for (int i = 0; i < reports.length; i++) {
+                // the report arriving closest to one lead time later
+                final long target = timestamps[i] + lead;
+                while (future + 1 < reports.length && Math.abs(timestamps[future + 1] - target) <= Math.abs(timestamps[future] - target)) future++;
+
+                if (timestamps[future] < target - INTERVAL_NANOS / 2) break;
+
+                for (int axis = 0; axis < AXIS_OFFSETS.length; axis++) {
+                    final int measured = FlypadAxisTable.normalize(reports[i][AXIS_OFFSETS[axis]]);
+                    final int expected = FlypadAxisTable.normalize(reports[future][AXIS_OFFSETS[axis]]);
+
+                    held.add(measured - expected);
+                    predicted.add(predictor.predict(axis, measured, timestamps[i]) - expected);
+                }
+            }
+
+            errors[leadReports - 1] = new Error[] {held, predicted};
+        }
+
+        return errors;
+    }
+
+    private static String describe(final String name, final int leadIndex, final Error held, final Error predicted) {
+        return String.format(Locale.US, "%s lead=%dms held: %s predicted: %s",
+                             name, (leadIndex + 1) * INTERVAL_NANOS / 1_000_000, held, predicted);
+    }
+
+    private static final class Error {
+        private long count;
+        private double squares;
+        private int max;
+
+        void add(final int error) {
+            count++;
+            squares += (double) error * error;
+            max = Math.max(max, Math.abs(error));
+        }
+
+        double rms() {
+            return count == 0 ? 0 : Math.sqrt(squares / count);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "rms=%.3f max=%d", rms(), max);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Stick conditioning curve of one axis: dead-zone, expo, super rate, inversion and scale, applied in that order.
+ * <p>
+ * Curves are immutable, the {@code with} methods return modified copies. They are not evaluated per
+ * report but compiled into the axis lookup table, see {@link FlypadHelper#setAxisCurve}.
+ */
+public final class FlypadAxisCurve {
+
+    /** Curve passing axis values through unchanged. */
+    public static final FlypadAxisCurve LINEAR = new FlypadAxisCurve(0, 0, 0, false, 1);
+
+    private final double deadZone;
+    private final double expo;
+    private final double superRate;
+    private final boolean inverted;
+    private final double scale;
+
+    private FlypadAxisCurve(final double deadZone, final double expo, final double superRate, final boolean inverted, final double scale) {
+        if (!(deadZone >= 0 && deadZone < 1)) throw new IllegalArgumentException("deadZone must be within [0, 1)");
+        if (!(expo >= 0 && expo <= 1)) throw new IllegalArgumentException("expo must be within [0, 1]");
+        if (!(superRate >= 0 && superRate < 1)) throw new IllegalArgumentException("superRate must be within [0, 1)");
+        if (!(scale >= 0) || Double.isInfinite(scale)) throw new IllegalArgumentException("scale must be finite and not negative");
+
+        this.deadZone = deadZone;
+        this.expo = expo;
+        this.superRate = superRate;
+        this.inverted = inverted;
+        this.scale = scale;
+    }
+
+    /**
+     * Returns a copy of this curve with a dead-zone. Values within the dead-zone read {@code 0},
+     * the remaining travel is stretched so full deflection still reads full scale.
+     *
+     * @param deadZone dead-zone as a fraction of full deflection, within [0, 1)
+     */
+    @NonNull
+    public FlypadAxisCurve withDeadZone(final double deadZone) {
+        return new FlypadAxisCurve(deadZone, expo, superRate, inverted, scale);
+    }
+
+    /**
+     * Returns a copy of this curve with expo, a blend of the linear and the cubic response
+     * softening the center of the stick.
+     *
+     * @param expo cubic share, within [0, 1], {@code 0} is linear
+     */
+    @NonNull
+    public FlypadAxisCurve withExpo(final double expo) {
+        return new FlypadAxisCurve(deadZone, expo, superRate, inverted, scale);
+    }
+
+    /**
+     * Returns a copy of this curve with super rate, steepening the response towards full deflection.
+     * Full deflection still reads full scale.
+     *
+     * @param superRate within [0, 1), {@code 0} disables it
+     */
+    @NonNull
+    public FlypadAxisCurve withSuperRate(final double superRate) {
+        return new FlypadAxisCurve(deadZone, expo, superRate, inverted, scale);
+    }
+
+    @NonNull
+    public FlypadAxisCurve withInverted(final boolean inverted) {
+        return new FlypadAxisCurve(deadZone, expo, superRate, inverted, scale);
+    }
+
+    /**
+     * Returns a copy of this curve with a rate scale applied last. The result is still clamped to the target range.
+     *
+     * @param scale factor, finite and not negative, {@code 1} keeps full scale
+     */
+    @NonNull
+    public FlypadAxisCurve withScale(final double scale) {
+        return new FlypadAxisCurve(deadZone, expo, superRate, inverted, scale);
+    }
+
+    public double getDeadZone() {
+        return deadZone;
+    }
+
+    public double getExpo() {
+        return expo;
+    }
+
+    public double getSuperRate() {
+        return superRate;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    boolean isLinear() {
+        return deadZone == 0 && expo == 0 && superRate == 0 && !inverted && scale == 1;
+    }
+
+    /**
+     * Applies this curve.
+     *
+     * @param value axis value in range [-1, 1]
+     *
+     * @return the conditioned value, within [-scale, scale]
+     */
+    public double apply(final double value) {
+        double magnitude = Math.min(1, Math.abs(value));
+        if (magnitude <= deadZone) return 0;
+
+        magnitude = (magnitude - deadZone) / (1 - deadZone);
+        magnitude = magnitude * (1 - expo) + magnitude * magnitude * magnitude * expo;
+        magnitude = magnitude * (1 - superRate) / (1 - magnitude * superRate);
+
+        // keep a zero scale from producing -0, which would not compare equal to 0 in the axis table
+        if (magnitude * scale == 0) return 0;
+
+        final double result = Math.copySign(magnitude * scale, value);
+        return inverted ? -result : result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FlypadAxisCurve)) return false;
+
+        final FlypadAxisCurve that = (FlypadAxisCurve) o;
+        return Double.compare(deadZone, that.deadZone) == 0
+               && Double.compare(expo, that.expo) == 0
+               && Double.compare(superRate, that.superRate) == 0
+               && inverted == that.inverted
+               && Double.compare(scale, that.scale) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(new double[] {deadZone, expo, superRate, scale}) + (inverted ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "deadZone=%.3f expo=%.3f superRate=%.3f inverted=%b scale=%.3f",
+                             deadZone, expo, superRate, inverted, scale);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+
+import java.util.Locale;
+
+/**
+ * Short horizon stick motion predictor, one alpha-beta filter per axis.
+ * <p>
+ * Each report updates a position and velocity estimate from the arrival timestamps and the stick
+ * is extrapolated a fixed lead time ahead to hide part of the notification latency. Predictions
+ * are made in raw stick counts (full deflection is about +/-110) before scaling and conditioning, so
+ * they are quantized to the same 8 bit resolution as measured values. The extrapolation is bounded:
+ * <ul>
+ * <li>it never runs further than {@code maxOvershoot} counts from the measured position,</li>
+ * <li>it never crosses center while the stick returns towards it,</li>
+ * <li>a stick at rest, within {@code restThreshold} counts of center, is reported as measured and stops the filter,</li>
+ * <li>a repeated sample is reported as measured, so a held stick settles on its real position.</li>
+ * </ul>
+ * Every sample costs the same few multiplications and does not allocate. Instances keep filter state
+ * and must only be fed from one thread, see {@link FlypadHelper#setAxisPredictor}.
+ */
+public final class FlypadAxisPredictor {
+
+    public static final double DEFAULT_ALPHA = 0.5;
+    public static final double DEFAULT_BETA = 0.15;
+    public static final int DEFAULT_MAX_OVERSHOOT = 12;
+    public static final int DEFAULT_REST_THRESHOLD = 2;
+
+    // a gap this long means the stream restarted, the filter starts over
+    private static final long MAX_GAP_NANOS = 100_000_000L;
+
+    private static final int AXES = FlypadAxis.values().length;
+    private static final int MAX_COUNT = 127;
+
+    private final double leadSeconds;
+    private final double alpha;
+    private final double beta;
+    private final int maxOvershoot;
+    private final int restThreshold;
+
+    // filter state indexed by axis ordinal, positions in counts, velocities in counts per second
+    private final double[] positions = new double[AXES];
+    private final double[] velocities = new double[AXES];
+    private final int[] lastMeasurements = new int[AXES];
+    private final long[] lastTimestamps = new long[AXES];
+    private final boolean[] tracking = new boolean[AXES];
+
+    /**
+     * Creates a predictor with the default filter gains and bounds.
+     *
+     * @param leadMillis how far ahead to extrapolate, in milliseconds
+     */
+    public FlypadAxisPredictor(final double leadMillis) {
+        this(leadMillis, DEFAULT_ALPHA, DEFAULT_BETA, DEFAULT_MAX_OVERSHOOT, DEFAULT_REST_THRESHOLD);
+    }
+
+    /**
+     * @param leadMillis    how far ahead to extrapolate, in milliseconds, {@code 0} only smooths
+     * @param alpha         position gain within (0, 1], higher follows measurements more closely
+     * @param beta          velocity gain within [0, 2), {@code 0} disables velocity tracking
+     * @param maxOvershoot  largest distance between prediction and measurement, in stick counts
+     * @param restThreshold distance from center at which the stick is considered at rest, in stick counts
+     */
+    public FlypadAxisPredictor(final double leadMillis, final double alpha, final double beta, final int maxOvershoot, final int restThreshold) {
+        if (!(leadMillis >= 0) || Double.isInfinite(leadMillis)) throw new IllegalArgumentException("leadMillis must be finite and not negative");
+        if (!(alpha > 0 && alpha <= 1)) throw new IllegalArgumentException("alpha must be within (0, 1]");
+        if (!(beta >= 0 && beta < 2)) throw new IllegalArgumentException("beta must be within [0, 2)");
+        if (maxOvershoot < 0) throw new IllegalArgumentException("maxOvershoot must not be negative");
+        if (restThreshold < 0) throw new IllegalArgumentException("restThreshold must not be negative");
+
+        this.leadSeconds = leadMillis / 1000;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.maxOvershoot = maxOvershoot;
+        this.restThreshold = restThreshold;
+    }
+
+    public double getLeadMillis() {
+        return leadSeconds * 1000;
+    }
+
+    /**
+     * Feeds one measurement and gets the predicted position.
+     *
+     * @param axis           axis ordinal
+     * @param measurement    measured position in stick counts, see {@link FlypadAxisTable#normalize}
+     * @param timestampNanos arrival time of the report
+     *
+     * @return the predicted position in stick counts, within [-127, 127]
+     */
+    int predict(final int axis, final int measurement, final long timestampNanos) {
+        final long elapsedNanos = timestampNanos - lastTimestamps[axis];
+        final int previous = lastMeasurements[axis];
+
+        lastTimestamps[axis] = timestampNanos;
+        lastMeasurements[axis] = measurement;
+
+        if (!tracking[axis] || elapsedNanos <= 0 || elapsedNanos > MAX_GAP_NANOS) {
+            positions[axis] = measurement;
+            velocities[axis] = 0;
+            tracking[axis] = true;
+            return measurement;
+        }
+
+        final double dt = elapsedNanos / 1e9;
+        final double expected = positions[axis] + velocities[axis] * dt;
+        final double residual = measurement - expected;
+
+        positions[axis] = expected + alpha * residual;
+        velocities[axis] += beta / dt * residual;
+
+        // snap to rest
+        if (Math.abs(measurement) <= restThreshold) {
+            positions[axis] = measurement;
+            velocities[axis] = 0;
+            return measurement;
+        }
+
+        if (measurement == previous) return measurement;
+
+        double predicted = positions[axis] + velocities[axis] * leadSeconds;
+
+        predicted = Math.max(measurement - maxOvershoot, Math.min(measurement + maxOvershoot, predicted));
+
+        // returning towards center, stop at center rather than swinging past it
+        if (measurement > 0 && velocities[axis] < 0) predicted = Math.max(0, predicted);
+        if (measurement < 0 && velocities[axis] > 0) predicted = Math.min(0, predicted);
+
+        return (int) Math.round(Math.max(-MAX_COUNT, Math.min(MAX_COUNT, predicted)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "lead=%.1fms alpha=%.2f beta=%.2f maxOvershoot=%d restThreshold=%d",
+                             leadSeconds * 1000, alpha, beta, maxOvershoot, restThreshold);
+    }
+}
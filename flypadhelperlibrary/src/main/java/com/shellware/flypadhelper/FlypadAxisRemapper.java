@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxisAction;
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxisMapping;
+
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Axis mappings compiled into a flat table of output slots, one per axis.
+ * <p>
+ * Remapping writes each axis value straight into the slot of its mapped action, so it neither
+ * allocates nor branches on the mappings. The output array is indexed by {@link FlypadAxisAction}
+ * ordinal, actions without a mapped axis read {@code 0}. When several axes are mapped to the same
+ * action the last axis wins. Instances are immutable and are rebuilt by {@link FlypadInfo#refreshMappings()}.
+ */
+public final class FlypadAxisRemapper {
+
+    /** Required length of the output array. */
+    public static final int OUTPUT_SIZE = FlypadAxisAction.values().length;
+
+    // output slot of each axis, indexed by axis ordinal, NO_ACTION slot discards the value
+    private final int[] targets = new int[FlypadAxis.values().length];
+
+    FlypadAxisRemapper(@NonNull final List<FlypadAxisMapping> mappings) {
+        for (FlypadAxisMapping mapping : mappings) {
+            targets[mapping.getAxis().ordinal()] = mapping.getAction().ordinal();
+        }
+    }
+
+    /**
+     * Remaps axis values to flight controls.
+     *
+     * @param leftX  left stick x axis value
+     * @param leftY  left stick y axis value
+     * @param rightX right stick x axis value
+     * @param rightY right stick y axis value
+     * @param out    array of at least {@link #OUTPUT_SIZE} values receiving the control values
+     *               indexed by {@link FlypadAxisAction} ordinal, e.g. {@code out[FlypadAxisAction.ROLL.ordinal()]}
+     */
+    public void remap(final float leftX, final float leftY, final float rightX, final float rightY, @NonNull final float[] out) {
+        Arrays.fill(out, 0, OUTPUT_SIZE, 0f);
+
+        // axis ordinal order
+        out[targets[0]] = leftX;
+        out[targets[1]] = leftY;
+        out[targets[2]] = rightX;
+        out[targets[3]] = rightY;
+
+        // clear whatever was written to the NO_ACTION slot
+        out[0] = 0f;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Lookup tables mapping each of the 256 raw axis byte values to its scaled and conditioned float value, one table per axis.
+ * <p>
+ * The tables are computed from a source and target range and a {@link FlypadAxisCurve} per axis, so decoding
+ * and conditioning an axis is a single array load. They also map every raw value to a canonical raw value:
+ * two raw values share a canonical value exactly when they give the same float on that axis, e.g. both
+ * center encodings, values past the clamp or values inside a dead-zone.
+ */
+public final class FlypadAxisTable {
+
+    /** Range of a normalized raw axis value. */
+    public static final DoubleRange SOURCE_RANGE = DoubleRange.of(-110, 110);
+
+    /** Range axis values are scaled to by default. */
+    public static final DoubleRange TARGET_RANGE = DoubleRangeCore.SIGNED_RATIO;
+
+    private static final int AXES = FlypadAxis.values().length;
+
+    private static final class Tables {
+        private final DoubleRange sourceRange;
+        private final DoubleRange targetRange;
+        private final FlypadAxisCurve[] curves;
+
+        // indexed by axis ordinal, then by unsigned raw value
+        private final float[][] values = new float[AXES][256];
+        private final byte[][] canonical = new byte[AXES][256];
+
+        private Tables(@NonNull final DoubleRange sourceRange, @NonNull final DoubleRange targetRange, @NonNull final FlypadAxisCurve[] curves) {
+            this.sourceRange = sourceRange;
+            this.targetRange = targetRange;
+            this.curves = curves;
+        }
+    }
+
+    private volatile Tables tables;
+
+    public FlypadAxisTable() {
+        this(SOURCE_RANGE, TARGET_RANGE);
+    }
+
+    public FlypadAxisTable(@NonNull final DoubleRange sourceRange, @NonNull final DoubleRange targetRange) {
+        final FlypadAxisCurve[] curves = new FlypadAxisCurve[AXES];
+        Arrays.fill(curves, FlypadAxisCurve.LINEAR);
+
+        tables = build(sourceRange, targetRange, curves);
+    }
+
+    /**
+     * Rebuilds the tables for new ranges, keeping the axis curves.
+     * Readers see either the previous or the new tables, never partially built ones.
+     *
+     * @param sourceRange range of normalized raw values
+     * @param targetRange range to scale to
+     */
+    public synchronized void rebuild(@NonNull final DoubleRange sourceRange, @NonNull final DoubleRange targetRange) {
+        tables = build(sourceRange, targetRange, tables.curves);
+    }
+
+    /**
+     * Rebuilds the tables with a new curve for one axis, keeping the ranges and the other curves.
+     *
+     * @param axis  axis to condition
+     * @param curve conditioning curve, {@link FlypadAxisCurve#LINEAR} for none
+     */
+    public synchronized void setCurve(@NonNull final FlypadAxis axis, @NonNull final FlypadAxisCurve curve) {
+        final Tables current = tables;
+        if (current.curves[axis.ordinal()].equals(curve)) return;
+
+        final FlypadAxisCurve[] curves = current.curves.clone();
+        curves[axis.ordinal()] = curve;
+
+        tables = build(current.sourceRange, current.targetRange, curves);
+    }
+
+    /**
+     * Rebuilds the tables with the same curve for every axis in one swap.
+     *
+     * @param curve conditioning curve, {@link FlypadAxisCurve#LINEAR} for none
+     */
+    public synchronized void setCurves(@NonNull final FlypadAxisCurve curve) {
+        final FlypadAxisCurve[] curves = new FlypadAxisCurve[AXES];
+        Arrays.fill(curves, curve);
+
+        tables = build(tables.sourceRange, tables.targetRange, curves);
+    }
+
+    @NonNull
+    public FlypadAxisCurve getCurve(@NonNull final FlypadAxis axis) {
+        return tables.curves[axis.ordinal()];
+    }
+
+    public float valueOf(@NonNull final FlypadAxis axis, final byte raw) {
+        return tables.values[axis.ordinal()][raw & 0xFF];
+    }
+
+    float valueOf(final int axis, final byte raw) {
+        return tables.values[axis][raw & 0xFF];
+    }
+
+    /**
+     * Gets the canonical raw value of a raw axis value.
+     *
+     * @param axis axis the value was read from
+     * @param raw  raw axis value
+     *
+     * @return the lowest unsigned raw value giving the same float as {@code raw} on {@code axis}
+     */
+    public byte canonicalOf(@NonNull final FlypadAxis axis, final byte raw) {
+        return tables.canonical[axis.ordinal()][raw & 0xFF];
+    }
+
+    byte canonicalOf(final int axis, final byte raw) {
+        return tables.canonical[axis][raw & 0xFF];
+    }
+
+    @NonNull
+    private static Tables build(@NonNull final DoubleRange sourceRange, @NonNull final DoubleRange targetRange, @NonNull final FlypadAxisCurve[] curves) {
+        final Tables tables = new Tables(sourceRange, targetRange, curves);
+
+        for (int axis = 0; axis < AXES; axis++) {
+            final FlypadAxisCurve curve = curves[axis];
+            final float[] values = tables.values[axis];
+
+            for (int raw = Byte.MIN_VALUE; raw <= Byte.MAX_VALUE; raw++) {
+                final int normal = normalize((byte) raw);
+
+                if (curve.isLinear()) {
+                    values[raw & 0xFF] = (float) targetRange.scaleFrom(normal, sourceRange);
+                } else {
+                    final double ratio = DoubleRangeCore.SIGNED_RATIO.scaleFrom(normal, sourceRange);
+                    values[raw & 0xFF] = (float) targetRange.scaleFrom(curve.apply(ratio), DoubleRangeCore.SIGNED_RATIO);
+                }
+            }
+
+            for (int index = 0; index < 256; index++) {
+                final int bits = Float.floatToIntBits(values[index]);
+
+                int first = 0;
+                while (Float.floatToIntBits(values[first]) != bits) first++;
+
+                tables.canonical[axis][index] = (byte) first;
+            }
+        }
+
+        return tables;
+    }
+
+    // inverse of normalize, center is encoded as 127
+    static byte denormalize(final int normal) {
+        return (byte) (normal <= 0 ? 127 + normal : normal - 128);
+    }
+
+    static int normalize(final byte value) {
+        // normalize axis to range -127 to +127
+        if (value == -128) {
+            return 0;
+        } else {
+            if (value > -1) {
+                // left side
+                return Math.abs(127 - value) * -1;
+            } else {
+                // right side
+                return value + 128;
+            }
+        }
+    }
+}
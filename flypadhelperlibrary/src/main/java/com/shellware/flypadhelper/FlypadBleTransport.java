@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import static com.shellware.flypadhelper.FlypadHelper.logEvent;
+
+/**
+ * Bluetooth LE transport talking to a real Flypad.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public final class FlypadBleTransport implements FlypadTransport {
+    private final String CLASS_NAME = this.getClass().getSimpleName();
+
+    private static final UUID FLYPAD_CONTROLLER_UUID = UUID.fromString("9e35fa00-4344-44d4-a2e2-0c7f6046878b");
+    private static final UUID FLYPAD_CONTROLLER_NOTIFY_UUID = UUID.fromString("9e35fa01-4344-44d4-a2e2-0c7f6046878b");
+    private static final UUID FLYPAD_CONTROLLER_NOTIFY_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private static final UUID FLYPAD_INFORMATION_UUID = UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb");
+
+    private static final UUID SERIAL_NUMBER = UUID.fromString("00002a25-0000-1000-8000-00805f9b34fb");
+    private static final UUID HARDWARE_VERSION = UUID.fromString("00002a27-0000-1000-8000-00805f9b34fb");
+    private static final UUID FIRMWARE_VERSION = UUID.fromString("00002a26-0000-1000-8000-00805f9b34fb");
+    private static final UUID SOFTWARE_VERSION = UUID.fromString("00002a28-0000-1000-8000-00805f9b34fb");
+
+    // Android silently ignores an app's scans started beyond 5 within 30 seconds, starts are budgeted app-wide
+    private static final int MAX_SCAN_STARTS = 5;
+    private static final long SCAN_START_WINDOW_MILLIS = 30000;
+
+    // times of the app's last scan starts, the slot at nextScanStart holds the oldest
+    private static final long[] scanStarts = new long[MAX_SCAN_STARTS];
+    private static int nextScanStart;
+
+    // disabling notifications only delays closing the link, it is not retried
+    private static final long DISABLE_NOTIFICATIONS_TIMEOUT_MILLIS = 500;
+
+//    private static final UUID BATTERY_STATUS_UUID = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+
+    private final Context ctx;
+    private final BluetoothAdapter bluetoothAdapter;
+
+    private Callback callback;
+
+    // written on the flypad thread, read on binder threads delivering GATT callbacks
+    private volatile BluetoothGatt bluetoothGatt;
+    private volatile BluetoothGattCharacteristic notifyCharacteristic;
+    private volatile BluetoothGattDescriptor notifyDescriptor;
+
+    // GATT operations of all connections, timeouts run on the main thread
+    private final FlypadGattQueue gattQueue = new FlypadGattQueue(new Handler(Looper.getMainLooper()));
+
+    // device information reads queued and not completed yet
+    private final AtomicInteger deviceInfoReads = new AtomicInteger();
+
+    private volatile boolean readDeviceInfo;
+    private volatile boolean linkUp;
+
+    public FlypadBleTransport(@NonNull final Context ctx) {
+        this.ctx = ctx;
+
+        final BluetoothManager bluetoothManager = (BluetoothManager) ctx.getSystemService(Context.BLUETOOTH_SERVICE);
+        bluetoothAdapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
+    }
+
+    @Override
+    public void setCallback(@NonNull final Callback callback) {
+        this.callback = callback;
+        ctx.registerReceiver(adapterStateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
+    }
+
+    // the scanner is only available while the adapter is on, so it is looked up on every use
+    @Nullable
+    private BluetoothLeScanner getScanner() {
+        return isAvailable() ? bluetoothAdapter.getBluetoothLeScanner() : null;
+    }
+
+    @Override
+    public void startDiscovery(@NonNull final ScanMode mode) {
+        final BluetoothLeScanner bluetoothLeScanner = getScanner();
+        if (bluetoothLeScanner == null) return;
+
+        // a start over the budget would be ignored without an error, a running scan keeps its mode meanwhile
+        final long retryMillis = reserveScanStart();
+
+        if (retryMillis > 0) {
+            logEvent(Log.WARN, CLASS_NAME, "scan start deferred retryMillis=" + retryMillis);
+            callback.onDiscoveryFailed(retryMillis);
+            return;
+        }
+
+        // a scan started twice with the same callback fails, the new mode replaces the running scan
+        bluetoothLeScanner.stopScan(scanCallback);
+
+        final ScanFilter scanFilter = new ScanFilter.Builder()
+                .setServiceUuid(ParcelUuid.fromString(FLYPAD_CONTROLLER_UUID.toString()))
+                .build();
+
+        final ScanSettings scanSettings = new ScanSettings.Builder()
+                .setScanMode(toScanSettingsMode(mode))
+                .setReportDelay(0)
+                .build();
+
+        bluetoothLeScanner.startScan(Collections.singletonList(scanFilter), scanSettings, scanCallback);
+    }
+
+    /**
+     * Takes a scan start from the app-wide budget. Scans other code of the app starts are not accounted for.
+     *
+     * @return {@code 0} if the scan may start now, otherwise how long until it may
+     */
+    private static synchronized long reserveScanStart() {
+        final long now = SystemClock.elapsedRealtime();
+        final long oldest = scanStarts[nextScanStart];
+
+        if (oldest != 0 && now - oldest < SCAN_START_WINDOW_MILLIS) return SCAN_START_WINDOW_MILLIS - (now - oldest);
+
+        scanStarts[nextScanStart] = now;
+        nextScanStart = (nextScanStart + 1) % MAX_SCAN_STARTS;
+        return 0;
+    }
+
+    @Override
+    public void stopDiscovery() {
+        final BluetoothLeScanner bluetoothLeScanner = getScanner();
+        if (bluetoothLeScanner != null) bluetoothLeScanner.stopScan(scanCallback);
+    }
+
+    @Override
+    public void connect(@NonNull final String address, final boolean readDeviceInfo) {
+        if (bluetoothAdapter == null) return;
+
+        this.readDeviceInfo = readDeviceInfo;
+        linkUp = false;
+
+        final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
+        bluetoothGatt = device.connectGatt(ctx, false, btleGattCallback);
+    }
+
+    @Override
+    public void readDeviceInfo() {
+        final BluetoothGatt gatt = bluetoothGatt;
+
+        // reads already queued deliver the same values
+        if (gatt == null || deviceInfoReads.get() > 0) return;
+
+        queueDeviceInfoReads(gatt);
+    }
+
+    // queues a read of every characteristic of the information service, they are issued back to back
+    private void queueDeviceInfoReads(@NonNull final BluetoothGatt gatt) {
+        final BluetoothGattService service = gatt.getService(FLYPAD_INFORMATION_UUID);
+        if (service == null) return;
+
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            deviceInfoReads.incrementAndGet();
+            gattQueue.read(gatt, characteristic, deviceInfoRead);
+        }
+    }
+
+    private final FlypadGattQueue.Completion deviceInfoRead = operation -> {
+        deviceInfoReads.decrementAndGet();
+
+        final BluetoothGattCharacteristic characteristic = operation.getCharacteristic();
+        final byte[] bytes = operation.getValue();
+
+        if (!operation.isSuccess() || characteristic == null || bytes == null) {
+            if (!operation.isCancelled()) logEvent(Log.WARN, CLASS_NAME, operation + " failed status=" + operation.getStatus());
+            return;
+        }
+
+        final String value = new String(bytes);
+
+        logEvent(CLASS_NAME, characteristic.getUuid() + " = " + value);
+
+        final DeviceInfo info = toDeviceInfo(characteristic.getUuid());
+        if (info != null) callback.onDeviceInfo(info, value);
+    };
+
+    // the controller is ready once the descriptor write completes, see onDescriptorWrite
+    private void enableNotifications(@NonNull final BluetoothGatt gatt) {
+        logEvent(CLASS_NAME, "enabling notifications");
+
+        final BluetoothGattService service = gatt.getService(FLYPAD_CONTROLLER_UUID);
+
+        if (service == null) {
+            logEvent(Log.ERROR, CLASS_NAME, "controller service missing");
+            callback.onDisconnected();
+            return;
+        }
+
+        notifyCharacteristic = service.getCharacteristic(FLYPAD_CONTROLLER_NOTIFY_UUID);
+        notifyDescriptor = notifyCharacteristic.getDescriptor(FLYPAD_CONTROLLER_NOTIFY_DESCRIPTOR_UUID);
+
+        gatt.setCharacteristicNotification(notifyCharacteristic, true);
+        gattQueue.writeDescriptor(gatt, notifyDescriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, operation -> {
+            // a connection dropped meanwhile
+            if (gatt != bluetoothGatt || operation.isCancelled()) return;
+
+            if (!operation.isSuccess()) {
+                logEvent(Log.ERROR, CLASS_NAME, "enabling notifications failed status=" + operation.getStatus());
+                callback.onDisconnected();
+                return;
+            }
+
+            callback.onReady();
+
+            if (readDeviceInfo) queueDeviceInfoReads(gatt);
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        final BluetoothGatt gatt = bluetoothGatt;
+        if (gatt == null) return;
+
+        bluetoothGatt = null;
+        gattQueue.cancel(gatt);
+
+        if (linkUp && isAvailable() && notifyCharacteristic != null && notifyDescriptor != null) {
+            logEvent(CLASS_NAME, "disabling notifications");
+
+            // the link is closed once the controller acknowledged, a lost write only delays it by the timeout
+            gatt.setCharacteristicNotification(notifyCharacteristic, false);
+            gattQueue.writeDescriptor(gatt, notifyDescriptor, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE,
+                                      DISABLE_NOTIFICATIONS_TIMEOUT_MILLIS, 1, operation -> closeGatt(gatt));
+        } else {
+            closeGatt(gatt);
+        }
+
+        linkUp = false;
+        notifyCharacteristic = null;
+        notifyDescriptor = null;
+    }
+
+    private void closeGatt(@NonNull final BluetoothGatt gatt) {
+        logEvent(CLASS_NAME, "deallocating gatt");
+        gatt.disconnect();
+        gatt.close();
+    }
+
+    @Override
+    public void close() {
+        ctx.unregisterReceiver(adapterStateReceiver);
+
+        stopDiscovery();
+        disconnect();
+    }
+
+    private final BroadcastReceiver adapterStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            if (action == null) return;
+
+            logEvent(CLASS_NAME, "onReceive=" + action);
+
+            if (action.equals(BluetoothAdapter.ACTION_STATE_CHANGED)) {
+                final int state = bluetoothAdapter.getState();
+
+                if (state == BluetoothAdapter.STATE_ON) callback.onAvailabilityChanged(true);
+                if (state == BluetoothAdapter.STATE_OFF) callback.onAvailabilityChanged(false);
+            }
+        }
+    };
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            super.onScanResult(callbackType, result);
+
+            final BluetoothDevice device = result.getDevice();
+
+            if (device != null && device.getName() != null) {
+                final String msg = String.format(Locale.US, "Found %s - %s",device.getName(), device.getAddress());
+                logEvent(Log.INFO, CLASS_NAME, msg);
+
+                callback.onDeviceFound(device.getName(), device.getAddress());
+            } else {
+                logEvent(Log.INFO, CLASS_NAME, "Discarding " + result.toString());
+            }
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            super.onBatchScanResults(results);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            super.onScanFailed(errorCode);
+
+            logEvent(Log.WARN, CLASS_NAME, "scan failed errorCode=" + errorCode);
+            callback.onDiscoveryFailed(0);
+        }
+    };
+
+    private final BluetoothGattCallback btleGattCallback = new BluetoothGattCallback() {
+
+        @Override
+        public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
+            super.onServicesDiscovered(gatt, status);
+
+            logEvent(CLASS_NAME, "onServicesDiscovered");
+
+            // a late event of a connection already dropped
+            if (gatt != bluetoothGatt) return;
+
+            if (BuildConfig.DEBUG) {
+                for (BluetoothGattService service : gatt.getServices()) {
+                    logEvent(CLASS_NAME, "service=" + service.getUuid().toString() + " type=" + service.getType());
+
+                    for (BluetoothGattCharacteristic bgc : service.getCharacteristics()) {
+                        logEvent(CLASS_NAME, "     characteristic=" + bgc.getUuid());
+
+                        for (BluetoothGattDescriptor desc : bgc.getDescriptors()) {
+                            logEvent(CLASS_NAME, "          descriptor=" + desc.getUuid() + " " + desc.getPermissions());
+                        }
+                    }
+                }
+            }
+
+            // input first, device information is read once notifications are enabled
+            enableNotifications(gatt);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicRead(gatt, characteristic, status);
+
+            gattQueue.onCharacteristicRead(gatt, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
+            super.onCharacteristicChanged(gatt, characteristic);
+
+            if (gatt != bluetoothGatt) return;
+
+            final long timestamp = System.nanoTime();
+            final byte[] response = characteristic.getValue();
+
+//            final StringBuilder data = new StringBuilder(20);
+//
+//            for (byte byteChar : response) {
+//                data.append(String.format(Locale.US, "[%d] ", byteChar));
+//            }
+//
+//            logEvent(CLASS_NAME, "raw=" + data.toString());
+
+            if (response == null) return;
+
+            callback.onReport(timestamp, response);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+
+            logEvent(CLASS_NAME, "onDescriptorWrite status=" + status);
+
+            gattQueue.onDescriptorWrite(gatt, descriptor, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+
+            logEvent(CLASS_NAME, "onCharacteristicWrite");
+
+            gattQueue.onCharacteristicWrite(gatt, characteristic, status);
+        }
+
+        @Override
+        public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
+            super.onConnectionStateChange(gatt, status, newState);
+
+            logEvent(CLASS_NAME, "onConnectionStateChange newState=" + newState);
+
+            // a late event of a connection already dropped
+            if (gatt != bluetoothGatt) return;
+
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                linkUp = true;
+                callback.onLinkUp();
+                gatt.discoverServices();
+            }
+
+            if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                // nothing queued for this link will complete, don't hold up the next one
+                linkUp = false;
+                gattQueue.cancel(gatt);
+                callback.onDisconnected();
+            }
+        }
+    };
+
+    private static int toScanSettingsMode(@NonNull final ScanMode mode) {
+        switch (mode) {
+            case LOW_POWER:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+            case LOW_LATENCY:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+            default:
+                return ScanSettings.SCAN_MODE_BALANCED;
+        }
+    }
+
+    @Nullable
+    private static DeviceInfo toDeviceInfo(@NonNull final UUID uuid) {
+        if (uuid.equals(SERIAL_NUMBER)) return DeviceInfo.SERIAL_NUMBER;
+        if (uuid.equals(HARDWARE_VERSION)) return DeviceInfo.HARDWARE_VERSION;
+        if (uuid.equals(SOFTWARE_VERSION)) return DeviceInfo.SOFTWARE_VERSION;
+        if (uuid.equals(FIRMWARE_VERSION)) return DeviceInfo.FIRMWARE_VERSION;
+        return null;
+    }
+}
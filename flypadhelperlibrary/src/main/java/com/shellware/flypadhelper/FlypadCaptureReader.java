@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Sequential reader of a capture written by {@link FlypadCaptureWriter}.
+ * <p>
+ * The file is memory-mapped, so even a capture of many hours is read without loading it and
+ * without a system call per record. Records are read in place into a report array reused per
+ * payload length, stepping through a capture does not allocate. A record cut short at the end
+ * of the file, e.g. by a crash while capturing, ends the capture.
+ */
+public final class FlypadCaptureReader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    // report arrays indexed by payload length, allocated on first use
+    private final byte[][] reports = new byte[FlypadCaptureWriter.MAX_REPORT_LENGTH + 1][];
+
+    private long timestampNanos;
+    private byte[] report;
+
+    /**
+     * Opens a capture.
+     *
+     * @param file capture file
+     *
+     * @throws IOException if the file cannot be mapped or is not a capture
+     */
+    public FlypadCaptureReader(@NonNull final File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+
+        try {
+            final long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) throw new IOException("capture larger than 2 GB: " + file);
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (size < FlypadCaptureWriter.HEADER_SIZE || buffer.getInt() != FlypadCaptureWriter.MAGIC) {
+                throw new IOException("not a flypad capture: " + file);
+            }
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return {@code false} at the end of the capture
+     */
+    public boolean next() {
+        if (buffer.remaining() < FlypadCaptureWriter.RECORD_HEADER_SIZE) return false;
+
+        final int start = buffer.position();
+        final long timestampNanos = buffer.getLong();
+        final int length = buffer.get() & 0xFF;
+
+        if (buffer.remaining() < length) {
+            buffer.position(start);
+            return false;
+        }
+
+        byte[] report = reports[length];
+        if (report == null) report = reports[length] = new byte[length];
+
+        buffer.get(report);
+
+        this.timestampNanos = timestampNanos;
+        this.report = report;
+        return true;
+    }
+
+    /** Arrival time of the current record, as captured. */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Gets the payload of the current record.
+     *
+     * @return the payload, only valid until the next call to {@link #next()}
+     */
+    @NonNull
+    public byte[] getReport() {
+        if (report == null) throw new IllegalStateException("next() was not called");
+        return report;
+    }
+
+    /** Moves back to the first record. */
+    public void rewind() {
+        buffer.position(FlypadCaptureWriter.HEADER_SIZE);
+        report = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
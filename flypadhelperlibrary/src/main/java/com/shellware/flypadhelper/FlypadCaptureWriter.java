@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Append-only binary capture of raw controller notifications.
+ * <p>
+ * The file starts with {@link #MAGIC}, followed by one record per notification: the arrival time
+ * from {@link System#nanoTime()} as a big endian long, the payload length as an unsigned byte and
+ * the payload. A 7 byte report takes 16 bytes, about 6 MB per hour at 100 reports per second.
+ * <p>
+ * {@link #record} only copies into a preallocated buffer, full buffers are written by a background
+ * thread through a {@link FileChannel}. It never blocks or allocates: when the disk falls behind
+ * and every buffer is in flight, reports are dropped and counted. Read captures back with
+ * {@link FlypadCaptureReader}.
+ */
+public final class FlypadCaptureWriter implements Closeable {
+
+    /** File signature, "FPC" followed by the format version. */
+    public static final int MAGIC = 0x46504301;
+
+    static final int HEADER_SIZE = 4;
+    static final int RECORD_HEADER_SIZE = 9;
+    static final int MAX_REPORT_LENGTH = 255;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFERS = 4;
+
+    // partially filled buffers are written at least this often so an idle stream still reaches the disk
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final ByteBuffer END_OF_CAPTURE = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final Thread writerThread;
+
+    // room for every buffer plus the end marker, so offering never fails
+    private final ArrayBlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final ArrayBlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<>(BUFFERS);
+
+    private ByteBuffer active;
+    private long handedOffNanos;
+    private boolean closed;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile IOException failure;
+
+    /**
+     * Creates a capture, replacing any existing file.
+     *
+     * @param file file to write
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public FlypadCaptureWriter(@NonNull final File file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        for (int i = 1; i < BUFFERS; i++) empty.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+        writerThread = new Thread(this::writeBuffers, "flypad-capture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Appends a notification. Called from the GATT callback thread.
+     *
+     * @param timestampNanos arrival time of the notification
+     * @param report         notification payload
+     *
+     * @return {@code false} if the report was dropped
+     */
+    public synchronized boolean record(final long timestampNanos, @NonNull final byte[] report) {
+        if (closed || report.length > MAX_REPORT_LENGTH) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        if (active != null && active.remaining() < RECORD_HEADER_SIZE + report.length) handOff(timestampNanos);
+
+        if (active == null && (active = empty.poll()) == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        active.putLong(timestampNanos).put((byte) report.length).put(report);
+        recorded.incrementAndGet();
+
+        if (timestampNanos - handedOffNanos >= FLUSH_INTERVAL_NANOS) handOff(timestampNanos);
+        return true;
+    }
+
+    private void handOff(final long timestampNanos) {
+        handedOffNanos = timestampNanos;
+
+        if (active.position() > 0) {
+            filled.add(active);
+            active = empty.poll();
+        }
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes whatever is still buffered and closes the file. Reports recorded afterwards are dropped.
+     *
+     * @throws IOException if writing the capture failed at any point
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+
+            if (active != null && active.position() > 0) filled.add(active);
+            active = null;
+            filled.add(END_OF_CAPTURE);
+        }
+
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+
+        if (failure != null) throw failure;
+    }
+
+    private void writeBuffers() {
+        try {
+            ByteBuffer buffer;
+
+            while ((buffer = filled.take()) != END_OF_CAPTURE) {
+                buffer.flip();
+
+                try {
+                    if (failure == null) {
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    // keep cycling buffers so the recording side never stalls, everything after this is lost
+                    failure = e;
+                }
+
+                buffer.clear();
+                empty.add(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
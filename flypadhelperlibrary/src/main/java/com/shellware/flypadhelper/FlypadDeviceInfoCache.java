@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import android.content.SharedPreferences;
+
+import com.shellware.flypadhelper.FlypadTransport.DeviceInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Device information of every controller connected before, keyed by address and kept in the shared preferences.
+ * <p>
+ * A controller whose information is cached skips the characteristic reads when it connects, keeping the link
+ * free for reports. The cached values are shown right away and refreshed in the background once reports are flowing.
+ */
+final class FlypadDeviceInfoCache {
+
+    private static final String KEY_PREFIX = "FLYPAD_INFO_";
+    private static final String NAME = "NAME";
+
+    private static final DeviceInfo[] DEVICE_INFOS = DeviceInfo.values();
+
+    private final SharedPreferences prefs;
+
+    FlypadDeviceInfoCache(@NonNull final SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * Applies the cached information of a controller.
+     *
+     * @param address    controller address
+     * @param flypadInfo receives the cached values
+     *
+     * @return {@code true} if every {@link DeviceInfo} value was cached, so nothing needs to be read before connecting
+     */
+    boolean load(@NonNull final String address, @NonNull final FlypadInfo flypadInfo) {
+        final String name = loadName(address);
+        if (name != null) flypadInfo.setName(name);
+
+        boolean complete = true;
+
+        for (DeviceInfo info : DEVICE_INFOS) {
+            final String value = prefs.getString(key(address, info.name()), null);
+
+            if (value == null) {
+                complete = false;
+                continue;
+            }
+
+            flypadInfo.setDeviceInfo(info, value);
+        }
+
+        return complete;
+    }
+
+    /**
+     * @param address controller address
+     *
+     * @return the advertised name cached for the controller, {@code null} if none was
+     */
+    @Nullable
+    String loadName(@NonNull final String address) {
+        return prefs.getString(key(address, NAME), null);
+    }
+
+    void storeName(@NonNull final String address, @NonNull final String name) {
+        store(key(address, NAME), name);
+    }
+
+    void store(@NonNull final String address, @NonNull final DeviceInfo info, @NonNull final String value) {
+        store(key(address, info.name()), value);
+    }
+
+    private void store(@NonNull final String key, @NonNull final String value) {
+        if (!value.equals(prefs.getString(key, null))) prefs.edit().putString(key, value).apply();
+    }
+
+    private static String key(@NonNull final String address, @NonNull final String field) {
+        return KEY_PREFIX + address + "_" + field;
+    }
+}
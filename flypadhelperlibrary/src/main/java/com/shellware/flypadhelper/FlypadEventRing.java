@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Preallocated single producer / single consumer ring of decoded controller reports.
+ * <p>
+ * Each slot holds a packed state word (see {@link FlypadReportDecoder}), its changed mask and its arrival time.
+ * Neither {@link #offer} nor {@link #drain} allocate or lock.
+ * <p>
+ * Changed masks are relative to the previous report, so the mask of an event dropped on overflow is kept
+ * and merged into the next event written: a button pressed or released in a dropped event is still reported,
+ * with the state of the event that carries it. Only the final state survives: a press and its release both
+ * dropped arrive as a single change reporting the button released, the consumer never sees the press.
+ */
+final class FlypadEventRing {
+
+    interface EventSink {
+        void onEvent(final long state, final int changed, final long timestampNanos);
+    }
+
+    private final int mask;
+    private final long[] states;
+    private final int[] changes;
+    private final long[] timestamps;
+
+    // next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    // changed masks of dropped events not written yet, only used by the producer
+    private int pendingChanged;
+
+    FlypadEventRing(final int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two greater than one");
+        }
+
+        mask = capacity - 1;
+        states = new long[capacity];
+        changes = new int[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Appends an event. Must only be called from the producer thread.
+     *
+     * @param state          packed state word
+     * @param changed        changed mask, see {@link FlypadReportDecoder#getChangedMask}
+     * @param timestampNanos arrival time of the report
+     *
+     * @return {@code false} if the ring was full and the event was dropped
+     */
+    boolean offer(final long state, final int changed, final long timestampNanos) {
+        final long t = tail.get();
+
+        if (t - head.get() > mask) {
+            pendingChanged |= changed;
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        final int index = (int) t & mask;
+        states[index] = state;
+        changes[index] = changed | pendingChanged;
+        timestamps[index] = timestampNanos;
+
+        pendingChanged = 0;
+
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Hands every pending event to a sink in arrival order. Must only be called from the consumer thread.
+     *
+     * @param sink receiver of the events
+     *
+     * @return the number of events drained
+     */
+    int drain(@NonNull final EventSink sink) {
+        final long start = head.get();
+        final long t = tail.get();
+        long h = start;
+
+        while (h < t) {
+            final int index = (int) h & mask;
+            sink.onEvent(states[index], changes[index], timestamps[index]);
+            head.lazySet(++h);
+        }
+
+        return (int) (t - start);
+    }
+
+    /**
+     * Tells whether changes of dropped events still wait for an event to carry them.
+     * Must only be called from the producer thread.
+     */
+    boolean hasPendingChanges() {
+        return pendingChanged != 0;
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static com.shellware.flypadhelper.FlypadHelper.logEvent;
+
+/**
+ * Serializes GATT operations, Android only accepts one outstanding operation per connection.
+ * <p>
+ * Operations are queued and the next one is issued from the callback completing the previous one,
+ * so the link never idles while work is queued. Every operation has a timeout and a number of attempts:
+ * an operation that fails or gets no callback in time is retried right away, one that is rejected, e.g.
+ * because the stack is still busy, is retried after a short backoff on the timeout handler. Once out of
+ * attempts it is completed with {@link #STATUS_TIMEOUT}, {@link #STATUS_REJECTED} or its last status so
+ * the queue always moves on. Completion is reported through
+ * the returned {@link Operation}, a future, and an optional {@link Completion} called on the thread that
+ * completed it, a binder thread or the timeout handler's thread.
+ */
+final class FlypadGattQueue {
+    private static final String CLASS_NAME = FlypadGattQueue.class.getSimpleName();
+
+    static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    static final int DEFAULT_ATTEMPTS = 2;
+
+    // delay before retrying a rejected operation, grows with every attempt
+    static final long RETRY_BACKOFF_MILLIS = 50;
+
+    /** The operation got no callback within its timeout. */
+    static final int STATUS_TIMEOUT = -1;
+    /** The operation was dropped before completing, e.g. because its connection went away. */
+    static final int STATUS_CANCELLED = -2;
+    /** {@link BluetoothGatt} refused to issue the operation. */
+    static final int STATUS_REJECTED = -3;
+
+    interface Completion {
+        void onComplete(@NonNull final Operation operation);
+    }
+
+    enum Type {
+        READ,
+        WRITE,
+        WRITE_DESCRIPTOR
+    }
+
+    /**
+     * A queued GATT operation and the future of its result. The value is the characteristic value read,
+     * or the value written. Never wait for it on a GATT callback thread, the operation completes there.
+     */
+    static final class Operation implements Future<byte[]> {
+        private final BluetoothGatt gatt;
+        private final Type type;
+        private final BluetoothGattCharacteristic characteristic;
+        private final BluetoothGattDescriptor descriptor;
+        private final byte[] value;
+        private final long timeoutMillis;
+        private final int maxAttempts;
+        private final Completion completion;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private int attempts;
+        private volatile int status;
+        private volatile byte[] result;
+
+        private Operation(@NonNull final BluetoothGatt gatt, @NonNull final Type type,
+                          @Nullable final BluetoothGattCharacteristic characteristic, @Nullable final BluetoothGattDescriptor descriptor,
+                          @Nullable final byte[] value, final long timeoutMillis, final int maxAttempts, @Nullable final Completion completion) {
+            if (timeoutMillis <= 0) throw new IllegalArgumentException("timeoutMillis must be positive");
+            if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+
+            this.gatt = gatt;
+            this.type = type;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+            this.timeoutMillis = timeoutMillis;
+            this.maxAttempts = maxAttempts;
+            this.completion = completion;
+        }
+
+        @NonNull
+        Type getType() {
+            return type;
+        }
+
+        @Nullable
+        BluetoothGattCharacteristic getCharacteristic() {
+            return characteristic;
+        }
+
+        /** {@link BluetoothGatt#GATT_SUCCESS}, a GATT error or one of the queue's own statuses. */
+        int getStatus() {
+            return status;
+        }
+
+        boolean isSuccess() {
+            return isDone() && status == BluetoothGatt.GATT_SUCCESS;
+        }
+
+        /**
+         * @return the value read or written, {@code null} until the operation succeeded
+         */
+        @Nullable
+        byte[] getValue() {
+            return result;
+        }
+
+        private boolean issue() {
+            attempts++;
+
+            switch (type) {
+                case READ:
+                    return gatt.readCharacteristic(characteristic);
+                case WRITE:
+                    characteristic.setValue(value);
+                    return gatt.writeCharacteristic(characteristic);
+                default:
+                    descriptor.setValue(value);
+                    return gatt.writeDescriptor(descriptor);
+            }
+        }
+
+        private boolean matches(@NonNull final BluetoothGatt gatt, @NonNull final Type type, @NonNull final Object target) {
+            return this.gatt == gatt && this.type == type && (target == characteristic || target == descriptor);
+        }
+
+        private void complete(final int status, @Nullable final byte[] value) {
+            this.status = status;
+            this.result = status == BluetoothGatt.GATT_SUCCESS ? value : null;
+            done.countDown();
+
+            if (completion != null) completion.onComplete(this);
+        }
+
+        /** Operations cannot be cancelled one by one, they are cancelled with their connection. */
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isDone() && status == STATUS_CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public byte[] get(final long timeout, @NonNull final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) throw new TimeoutException();
+            return getResult();
+        }
+
+        private byte[] getResult() throws ExecutionException {
+            if (status != BluetoothGatt.GATT_SUCCESS) throw new ExecutionException(new IllegalStateException(type + " failed status=" + status));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + (characteristic != null ? characteristic.getUuid() : descriptor.getUuid());
+        }
+    }
+
+    private final Handler timeoutHandler;
+
+    private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+    private Operation current;
+
+    private final Runnable timeoutRunnable = this::onTimeout;
+    private final Runnable retryRunnable = this::onRetry;
+
+    /**
+     * @param timeoutHandler handler running the operation timeouts
+     */
+    FlypadGattQueue(@NonNull final Handler timeoutHandler) {
+        this.timeoutHandler = timeoutHandler;
+    }
+
+    @NonNull
+    Operation read(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattCharacteristic characteristic, @Nullable final Completion completion) {
+        return enqueue(new Operation(gatt, Type.READ, characteristic, null, null, DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS, completion));
+    }
+
+    @NonNull
+    Operation write(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattCharacteristic characteristic, @NonNull final byte[] value,
+                    @Nullable final Completion completion) {
+        return enqueue(new Operation(gatt, Type.WRITE, characteristic, null, value, DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS, completion));
+    }
+
+    @NonNull
+    Operation writeDescriptor(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattDescriptor descriptor, @NonNull final byte[] value,
+                              @Nullable final Completion completion) {
+        return writeDescriptor(gatt, descriptor, value, DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS, completion);
+    }
+
+    @NonNull
+    Operation writeDescriptor(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattDescriptor descriptor, @NonNull final byte[] value,
+                              final long timeoutMillis, final int maxAttempts, @Nullable final Completion completion) {
+        return enqueue(new Operation(gatt, Type.WRITE_DESCRIPTOR, null, descriptor, value, timeoutMillis, maxAttempts, completion));
+    }
+
+    private Operation enqueue(@NonNull final Operation operation) {
+        synchronized (this) {
+            pending.add(operation);
+        }
+
+        issueNext();
+        return operation;
+    }
+
+    /**
+     * Cancels the operations of a connection, e.g. because it went away. An operation of the connection
+     * in flight is abandoned too, its callback would never come and other connections are not held up.
+     *
+     * @param gatt connection whose operations are dropped
+     */
+    void cancel(@NonNull final BluetoothGatt gatt) {
+        final ArrayDeque<Operation> cancelled = new ArrayDeque<>();
+
+        synchronized (this) {
+            if (current != null && current.gatt == gatt) {
+                timeoutHandler.removeCallbacks(timeoutRunnable);
+                timeoutHandler.removeCallbacks(retryRunnable);
+                cancelled.add(current);
+                current = null;
+            }
+
+            final Iterator<Operation> operations = pending.iterator();
+
+            while (operations.hasNext()) {
+                final Operation operation = operations.next();
+
+                if (operation.gatt == gatt) {
+                    operations.remove();
+                    cancelled.add(operation);
+                }
+            }
+        }
+
+        for (Operation operation : cancelled) operation.complete(STATUS_CANCELLED, null);
+
+        issueNext();
+    }
+
+    void onCharacteristicRead(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattCharacteristic characteristic, final int status) {
+        onCallback(gatt, Type.READ, characteristic, status, characteristic.getValue());
+    }
+
+    void onCharacteristicWrite(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattCharacteristic characteristic, final int status) {
+        onCallback(gatt, Type.WRITE, characteristic, status, characteristic.getValue());
+    }
+
+    void onDescriptorWrite(@NonNull final BluetoothGatt gatt, @NonNull final BluetoothGattDescriptor descriptor, final int status) {
+        onCallback(gatt, Type.WRITE_DESCRIPTOR, descriptor, status, descriptor.getValue());
+    }
+
+    private void onCallback(@NonNull final BluetoothGatt gatt, @NonNull final Type type, @NonNull final Object target,
+                            final int status, @Nullable final byte[] value) {
+        final Operation operation;
+
+        synchronized (this) {
+            operation = current;
+
+            // a late callback of an operation that already timed out
+            if (operation == null || !operation.matches(gatt, type, target)) return;
+
+            timeoutHandler.removeCallbacks(timeoutRunnable);
+
+            if (status != BluetoothGatt.GATT_SUCCESS && issue(operation)) return;
+
+            current = null;
+        }
+
+        operation.complete(status, value);
+        issueNext();
+    }
+
+    private void onTimeout() {
+        final Operation operation;
+
+        synchronized (this) {
+            operation = current;
+            if (operation == null) return;
+
+            logEvent(Log.WARN, CLASS_NAME, operation + " timed out attempt=" + operation.attempts);
+
+            if (issue(operation)) return;
+
+            current = null;
+        }
+
+        operation.complete(STATUS_TIMEOUT, null);
+        issueNext();
+    }
+
+    private void onRetry() {
+        final Operation operation;
+
+        synchronized (this) {
+            operation = current;
+            if (operation == null) return;
+
+            if (issue(operation)) return;
+
+            current = null;
+        }
+
+        // refused on every attempt, e.g. the connection is gone, move on to the next operation
+        logEvent(Log.WARN, CLASS_NAME, operation + " rejected");
+        operation.complete(STATUS_REJECTED, null);
+        issueNext();
+    }
+
+    /**
+     * Makes another attempt at an operation, called holding the lock.
+     *
+     * @return {@code false} if the operation is out of attempts, otherwise it is in flight or its retry is scheduled
+     */
+    private boolean issue(@NonNull final Operation operation) {
+        if (operation.attempts >= operation.maxAttempts) return false;
+
+        if (operation.issue()) {
+            timeoutHandler.postDelayed(timeoutRunnable, operation.timeoutMillis);
+        } else {
+            // the stack refuses while busy, give it time rather than spinning on it
+            timeoutHandler.postDelayed(retryRunnable, RETRY_BACKOFF_MILLIS * operation.attempts);
+        }
+
+        return true;
+    }
+
+    private void issueNext() {
+        synchronized (this) {
+            if (current != null || pending.isEmpty()) return;
+
+            // a new operation always has an attempt left
+            current = pending.poll();
+            issue(current);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import com.shellware.flypadhelper.FlypadListener.DispatchMode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import static com.shellware.flypadhelper.FlypadHelper.logEvent;
+
+/**
+ * Several controllers live at once, e.g. an instructor and a student Flypad.
+ * <p>
+ * Every controller gets its own {@link FlypadHelper}, with its own decoder, {@link FlypadInfo} and
+ * metrics, identified by {@link FlypadHelper#getDeviceId()}. Listeners receive the helper with every
+ * event, so a listener registered through the group tells controllers apart by the helper's device id.
+ * Helpers share a bounded pool of dispatch threads instead of one thread each, and a controller is
+ * only ever claimed by one helper of the group.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public final class FlypadGroup {
+    private final String CLASS_NAME = this.getClass().getSimpleName();
+
+    /** Dispatch threads used when not given, dispatch is short so two threads serve many controllers. */
+    public static final int DEFAULT_THREADS = 2;
+
+    private final List<FlypadHelper> helpers;
+
+    // address of each claimed controller and the helper connected to it
+    private final Map<String, FlypadHelper> claims = new HashMap<>();
+
+    /**
+     * Creates a group of Bluetooth LE controllers.
+     *
+     * @param ctx         context holding the mapping preferences
+     * @param controllers number of controllers to connect
+     */
+    public FlypadGroup(@NonNull final Context ctx, final int controllers) {
+        this(ctx, bleTransports(ctx, controllers), DEFAULT_THREADS);
+    }
+
+    /**
+     * @param ctx        context holding the mapping preferences
+     * @param transports one transport per controller, owned and closed by the group
+     * @param threads    dispatch threads shared by all controllers, at most one per controller is used
+     */
+    public FlypadGroup(@NonNull final Context ctx, @NonNull final List<? extends FlypadTransport> transports, final int threads) {
+        if (transports.isEmpty()) throw new IllegalArgumentException("at least one transport is required");
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+
+        logEvent(Log.INFO, CLASS_NAME, "create controllers=" + transports.size() + " threads=" + threads);
+
+        final FlypadThreadPool threadPool = new FlypadThreadPool("arpro4-flypad-thread", Math.min(threads, transports.size()));
+        final List<FlypadHelper> helpers = new ArrayList<>(transports.size());
+
+        for (int deviceId = 0; deviceId < transports.size(); deviceId++) {
+            helpers.add(new FlypadHelper(ctx, transports.get(deviceId), threadPool, deviceId, this));
+        }
+
+        this.helpers = Collections.unmodifiableList(helpers);
+    }
+
+    private static List<FlypadTransport> bleTransports(@NonNull final Context ctx, final int controllers) {
+        if (controllers < 1) throw new IllegalArgumentException("controllers must be at least 1");
+
+        final List<FlypadTransport> transports = new ArrayList<>(controllers);
+        for (int i = 0; i < controllers; i++) transports.add(new FlypadBleTransport(ctx));
+        return transports;
+    }
+
+    public int size() {
+        return helpers.size();
+    }
+
+    /**
+     * @param deviceId device id, from {@code 0} to {@link #size()} - 1
+     */
+    @NonNull
+    public FlypadHelper getHelper(final int deviceId) {
+        return helpers.get(deviceId);
+    }
+
+    @NonNull
+    public List<FlypadHelper> getHelpers() {
+        return helpers;
+    }
+
+    public int getConnectedCount() {
+        int connected = 0;
+
+        for (FlypadHelper helper : helpers) {
+            if (helper.isConnected()) connected++;
+        }
+        return connected;
+    }
+
+    /** Starts scanning on every helper not connected yet. */
+    public void startLeScan() {
+        for (FlypadHelper helper : helpers) helper.startLeScan();
+    }
+
+    public void stopLeScan() {
+        for (FlypadHelper helper : helpers) helper.stopLeScan();
+    }
+
+    /** Sets the scan schedule of every helper, see {@link FlypadHelper#setScanSchedule}. */
+    public void setScanSchedule(@NonNull final FlypadScanSchedule scanSchedule) {
+        for (FlypadHelper helper : helpers) helper.setScanSchedule(scanSchedule);
+    }
+
+    /**
+     * Registers a listener with every controller, see {@link FlypadHelper#addFlypadListener(FlypadListener, DispatchMode)}.
+     *
+     * @return {@code true} if the listener was not already registered with every controller
+     */
+    public boolean addFlypadListener(@NonNull final FlypadListener flypadListener, @NonNull final DispatchMode mode) {
+        boolean added = true;
+
+        for (FlypadHelper helper : helpers) added &= helper.addFlypadListener(flypadListener, mode);
+        return added;
+    }
+
+    public boolean removeFlypadListener(@NonNull final FlypadListener flypadListener) {
+        boolean removed = false;
+
+        for (FlypadHelper helper : helpers) removed |= helper.removeFlypadListener(flypadListener);
+        return removed;
+    }
+
+    public boolean addFlypadRawListener(@NonNull final FlypadRawListener flypadRawListener) {
+        boolean added = true;
+
+        for (FlypadHelper helper : helpers) added &= helper.addFlypadRawListener(flypadRawListener);
+        return added;
+    }
+
+    public boolean removeFlypadRawListener(@NonNull final FlypadRawListener flypadRawListener) {
+        boolean removed = false;
+
+        for (FlypadHelper helper : helpers) removed |= helper.removeFlypadRawListener(flypadRawListener);
+        return removed;
+    }
+
+    public void destroy() {
+        logEvent(Log.INFO, CLASS_NAME, "destroy");
+
+        for (FlypadHelper helper : helpers) helper.destroy();
+    }
+
+    /**
+     * Claims a controller for a helper, releasing the controller it claimed before.
+     *
+     * @return {@code false} if another helper of the group already claimed it
+     */
+    synchronized boolean claim(@NonNull final FlypadHelper helper, @NonNull final String address) {
+        final FlypadHelper owner = claims.get(address);
+        if (owner != null && owner != helper) return false;
+
+        release(helper);
+        claims.put(address, helper);
+        return true;
+    }
+
+    synchronized void release(@NonNull final FlypadHelper helper) {
+        final Iterator<FlypadHelper> owners = claims.values().iterator();
+
+        while (owners.hasNext()) {
+            if (owners.next() == helper) owners.remove();
+        }
+    }
+}
@@ -4,99 +4,329 @@
 
 package com.shellware.flypadhelper;
 
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.view.Choreographer;
 
+import com.shellware.flypadhelper.FlypadLatencyMetrics.Stage;
+import com.shellware.flypadhelper.FlypadListener.DispatchMode;
 import com.shellware.flypadhelper.FlypadListener.State;
 import com.shellware.flypadhelper.FlypadInfo.FlypadButtonState;
 import com.shellware.flypadhelper.FlypadInfo.FlypadButton;
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 
 public class FlypadHandler extends Handler {
     private static final String CLASS_NAME = FlypadHandler.class.getSimpleName();
 
+    static final int STATE_MESSAGE = 0;
+    static final int REPORT_MESSAGE = 1;
+
+    private static final int REPORT_RING_CAPACITY = 256;
+
+    private static final State[] STATES = State.values();
+    private static final FlypadButton[] BUTTONS = FlypadButton.values();
+
+    private static final FlypadListener[] NO_LISTENERS = new FlypadListener[0];
+    private static final FlypadRawListener[] NO_RAW_LISTENERS = new FlypadRawListener[0];
+
     private final FlypadHelper helper;
-    private final Collection<FlypadListener> listeners = new ArrayList<>();
     private final Handler mainThreadHandler;
 
+    // MAIN_THREAD and FRAME_ALIGNED listeners, receive state, battery and button changes
+    private final FlypadListenerRegistry<FlypadListener> listeners = new FlypadListenerRegistry<>(NO_LISTENERS);
+    // MAIN_THREAD listeners, receive every axis change
+    private final FlypadListenerRegistry<FlypadListener> axisListeners = new FlypadListenerRegistry<>(NO_LISTENERS);
+    // FRAME_ALIGNED listeners, receive axis values once per frame
+    private final FlypadListenerRegistry<FlypadListener> frameAlignedListeners = new FlypadListenerRegistry<>(NO_LISTENERS);
+    // DIRECT listeners, receive everything on the decoding thread
+    private final FlypadListenerRegistry<FlypadListener> directListeners = new FlypadListenerRegistry<>(NO_LISTENERS);
+    // raw listeners, receive every report on the decoding thread
+    private final FlypadListenerRegistry<FlypadRawListener> rawListeners = new FlypadListenerRegistry<>(NO_RAW_LISTENERS);
+
+    private final FlypadEventRing reports = new FlypadEventRing(REPORT_RING_CAPACITY);
+    private final FlypadEventRing.EventSink reportSink = this::onReport;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // newest state word not yet delivered to frame aligned listeners
+    // written as a pair under a seqlock by the flypad thread, odd while a write is in progress
+    private final AtomicInteger frameSequence = new AtomicInteger();
+    private volatile long frameState;
+    private volatile long frameTimestamp;
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final Choreographer.FrameCallback frameCallback = this::onFrame;
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(frameCallback);
+
     FlypadHandler(@NonNull final FlypadHelper helper, @NonNull Looper looper) {
         super(looper);
         this.helper = helper;
         mainThreadHandler =  new Handler(Looper.getMainLooper());
     }
 
-    synchronized boolean addFlypadListener(FlypadListener flypadListener) {
-        return !listeners.contains(flypadListener) && listeners.add(flypadListener);
+    // writers serialize on this handler, dispatch only ever reads registry snapshots
+    synchronized boolean addFlypadListener(FlypadListener flypadListener, DispatchMode mode) {
+        if (listeners.contains(flypadListener) || directListeners.contains(flypadListener)) return false;
+
+        switch (mode) {
+            case DIRECT:
+                return directListeners.add(flypadListener);
+            case FRAME_ALIGNED:
+                frameAlignedListeners.add(flypadListener);
+                break;
+            default:
+                axisListeners.add(flypadListener);
+                break;
+        }
+        return listeners.add(flypadListener);
     }
 
     synchronized boolean removeFlypadListener(FlypadListener flypadListener) {
-        return listeners.remove(flypadListener);
+        axisListeners.remove(flypadListener);
+        frameAlignedListeners.remove(flypadListener);
+        return listeners.remove(flypadListener) | directListeners.remove(flypadListener);
+    }
+
+    boolean addFlypadRawListener(FlypadRawListener flypadRawListener) {
+        return rawListeners.add(flypadRawListener);
+    }
+
+    boolean removeFlypadRawListener(FlypadRawListener flypadRawListener) {
+        return rawListeners.remove(flypadRawListener);
     }
 
     synchronized void removeAllListeners() {
+        rawListeners.clear();
+        axisListeners.clear();
+        frameAlignedListeners.clear();
+        directListeners.clear();
         listeners.clear();
     }
 
-    @Override
-    public synchronized void handleMessage(Message msg) {
-        final Bundle bundle = msg.getData();
+    /**
+     * Delivers a state change to {@link DispatchMode#DIRECT} listeners on the calling thread.
+     */
+    void dispatchStateDirect(final State newState, final State oldState) {
+        for (FlypadListener flypadListener : directListeners.snapshot()) {
+            flypadListener.onFlypadStateChanged(helper, newState, oldState);
+        }
+    }
 
-        if (bundle.containsKey("newState")) {
-            final State newState = State.values()[bundle.getInt("newState")];
-            final State oldState = State.values()[bundle.getInt("oldState")];
+    /**
+     * Delivers every decoded report to raw listeners on the calling thread.
+     *
+     * @return {@code true} if any listener was called
+     */
+    boolean dispatchRaw(final long state, final int changed, final long timestampNanos) {
+        final FlypadRawListener[] raw = rawListeners.snapshot();
 
-            mainThreadHandler.post(() -> {
-                for (FlypadListener flypadListener : listeners) {
-                    flypadListener.onFlypadStateChanged(helper, newState, oldState);
-                }
-            });
+        for (FlypadRawListener flypadRawListener : raw) {
+            flypadRawListener.onFlypadRawState(helper, state, changed, timestampNanos);
+        }
 
-            // state messages do not contain any other bundle data
-            return;
+        return raw.length > 0;
+    }
+
+    /**
+     * Delivers a decoded report to {@link DispatchMode#DIRECT} listeners on the calling thread.
+     *
+     * @return {@code true} if any listener was called
+     */
+    boolean dispatchReportDirect(final long state, final int changed) {
+        final FlypadListener[] direct = directListeners.snapshot();
+        if (direct.length == 0) return false;
+
+        if ((changed & FlypadReportDecoder.CHANGED_BATTERY) != 0) {
+            final short batteryLevel = FlypadReportDecoder.getBatteryLevel(state);
+
+            for (FlypadListener flypadListener : direct) {
+                flypadListener.onFlypadBatteryLevelChanged(helper, batteryLevel);
+            }
         }
 
-        if (bundle.containsKey("batteryLevel")) {
-            mainThreadHandler.post(() -> {
-                for (FlypadListener flypadListener : listeners) {
-                    flypadListener.onFlypadBatteryLevelChanged(helper, bundle.getShort("batteryLevel"));
-                }
-            });
+        if ((changed & FlypadReportDecoder.CHANGED_AXES) != 0) {
+            final FlypadReportDecoder decoder = helper.getDecoder();
+
+            final float lx = decoder.getAxis(state, FlypadAxis.LEFT_X);
+            final float ly = decoder.getAxis(state, FlypadAxis.LEFT_Y);
+            final float rx = decoder.getAxis(state, FlypadAxis.RIGHT_X);
+            final float ry = decoder.getAxis(state, FlypadAxis.RIGHT_Y);
+
+            for (FlypadListener flypadListener : direct) {
+                flypadListener.onFlypadAxisValuesChanged(helper, lx, ly, rx, ry);
+            }
         }
 
-        if (bundle.getBoolean("axesChanged")) {
-            final float lx = bundle.getFloat("axisLeftX");
-            final float ly = bundle.getFloat("axisLeftY");
-            final float rx = bundle.getFloat("axisRightX");
-            final float ry = bundle.getFloat("axisRightY");
+        final int changedButtons = FlypadReportDecoder.getChangedButtons(changed);
+
+        if (changedButtons != 0) {
+            final int buttons = FlypadReportDecoder.getButtons(state);
 
-//            logEvent(CLASS_NAME, String.format(Locale.US, "lx=%d ly=%d rx=%d ry=%d", lx, ly, rx, ry));
+            for (FlypadButton button : BUTTONS) {
+                final int bit = 1 << button.ordinal();
 
-            mainThreadHandler.post(() -> {
-                for (FlypadListener flypadListener : listeners) {
-                    flypadListener.onFlypadAxisValuesChanged(helper, lx , ly, rx, ry);
+                if ((changedButtons & bit) != 0) {
+                    final FlypadButtonState buttonState = (buttons & bit) != 0 ? FlypadButtonState.PRESSED : FlypadButtonState.RELEASED;
+
+                    for (FlypadListener flypadListener : direct) {
+                        flypadListener.onFlypadButtonChanged(helper, button, buttonState);
+                    }
                 }
-            });
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Hands a decoded report over to the flypad thread.
+     * Called from the GATT callback thread, does not allocate.
+     */
+    void postReport(final long state, final int changed, final long timestampNanos) {
+        // no thread hop needed when nobody listens on the main thread
+        if (listeners.isEmpty()) return;
+
+        reports.offer(state, changed, timestampNanos);
+
+        // one pending drain message covers every report queued before it runs
+        if (!drainScheduled.getAndSet(true)) {
+            sendEmptyMessage(REPORT_MESSAGE);
+        }
+    }
+
+    /**
+     * Hands an unchanged report over when changes of reports dropped by a full ring are still pending,
+     * so they are delivered even if the controller goes idle. Called from the GATT callback thread.
+     */
+    void postDroppedChanges(final long state, final long timestampNanos) {
+        if (reports.hasPendingChanges()) postReport(state, 0, timestampNanos);
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        switch (msg.what) {
+            case STATE_MESSAGE:
+                final State newState = STATES[msg.arg1];
+                final State oldState = STATES[msg.arg2];
+
+                mainThreadHandler.post(() -> {
+                    for (FlypadListener flypadListener : listeners.snapshot()) {
+                        flypadListener.onFlypadStateChanged(helper, newState, oldState);
+                    }
+                });
+                break;
+
+            case REPORT_MESSAGE:
+                // clear before draining so a report queued mid-drain schedules another pass
+                drainScheduled.set(false);
+                reports.drain(reportSink);
+                break;
         }
+    }
+
+    private void onReport(final long state, final int changed, final long timestampNanos) {
+        final FlypadLatencyMetrics latency = helper.getLatencyMetrics();
+        latency.record(Stage.HANDED_OFF, timestampNanos);
+
+        final boolean batteryChanged = (changed & FlypadReportDecoder.CHANGED_BATTERY) != 0;
+        final boolean axesChanged = (changed & FlypadReportDecoder.CHANGED_AXES) != 0;
+        final int changedButtons = FlypadReportDecoder.getChangedButtons(changed);
+
+        if (axesChanged && !frameAlignedListeners.isEmpty()) {
+            // latest value wins, the frame callback picks up whatever is newest when it runs
+            frameSequence.incrementAndGet();
+            frameState = state;
+            frameTimestamp = timestampNanos;
+            frameSequence.incrementAndGet();
+
+            if (!frameScheduled.getAndSet(true)) {
+                mainThreadHandler.post(scheduleFrame);
+            }
+        }
+
+        final boolean postAxes = axesChanged && !axisListeners.isEmpty();
+        if (!batteryChanged && !postAxes && changedButtons == 0) return;
+
+        final FlypadReportDecoder decoder = helper.getDecoder();
+
+        final float lx = decoder.getAxis(state, FlypadAxis.LEFT_X);
+        final float ly = decoder.getAxis(state, FlypadAxis.LEFT_Y);
+        final float rx = decoder.getAxis(state, FlypadAxis.RIGHT_X);
+        final float ry = decoder.getAxis(state, FlypadAxis.RIGHT_Y);
+
+//        logEvent(CLASS_NAME, String.format(Locale.US, "lx=%d ly=%d rx=%d ry=%d", lx, ly, rx, ry));
+
+        // one runnable per report, so its latency stages are recorded once however many fields changed
+        mainThreadHandler.post(() -> {
+            latency.record(Stage.POSTED, timestampNanos);
 
-        if (bundle.getBoolean("buttonsChanged")) {
-            for (FlypadButton button : FlypadButton.values()) {
-                if (bundle.containsKey(button.name())) {
-                    final boolean pressed = bundle.getBoolean(button.name());
-                    final FlypadButtonState state = pressed ? FlypadButtonState.PRESSED : FlypadButtonState.RELEASED;
+            if (batteryChanged) {
+                final short batteryLevel = FlypadReportDecoder.getBatteryLevel(state);
 
-                    mainThreadHandler.post(() -> {
-                        for (FlypadListener flypadListener : listeners) {
-                            flypadListener.onFlypadButtonChanged(helper, button, state);
+                for (FlypadListener flypadListener : listeners.snapshot()) {
+                    flypadListener.onFlypadBatteryLevelChanged(helper, batteryLevel);
+                }
+            }
+
+            if (postAxes) {
+                for (FlypadListener flypadListener : axisListeners.snapshot()) {
+                    flypadListener.onFlypadAxisValuesChanged(helper, lx, ly, rx, ry);
+                }
+            }
+
+            if (changedButtons != 0) {
+                final int buttons = FlypadReportDecoder.getButtons(state);
+
+                for (FlypadButton button : BUTTONS) {
+                    final int bit = 1 << button.ordinal();
+
+                    if ((changedButtons & bit) != 0) {
+                        final FlypadButtonState buttonState = (buttons & bit) != 0 ? FlypadButtonState.PRESSED : FlypadButtonState.RELEASED;
+
+                        for (FlypadListener flypadListener : listeners.snapshot()) {
+                            flypadListener.onFlypadButtonChanged(helper, button, buttonState);
                         }
-                    });
+                    }
                 }
             }
+
+            latency.record(Stage.LISTENER_RETURNED, timestampNanos);
+        });
+    }
+
+    // records its stages once per frame, for the newest report it delivers
+    private void onFrame(final long frameTimeNanos) {
+        // clear before reading so a newer state schedules the next frame
+        frameScheduled.set(false);
+
+        long state;
+        long timestampNanos;
+        int sequence;
+
+        // retry until the pair was read without a write in between
+        do {
+            sequence = frameSequence.get();
+            state = frameState;
+            timestampNanos = frameTimestamp;
+        } while ((sequence & 1) != 0 || sequence != frameSequence.get());
+        final FlypadReportDecoder decoder = helper.getDecoder();
+        final FlypadLatencyMetrics latency = helper.getLatencyMetrics();
+
+        latency.record(Stage.POSTED, timestampNanos);
+
+        final float lx = decoder.getAxis(state, FlypadAxis.LEFT_X);
+        final float ly = decoder.getAxis(state, FlypadAxis.LEFT_Y);
+        final float rx = decoder.getAxis(state, FlypadAxis.RIGHT_X);
+        final float ry = decoder.getAxis(state, FlypadAxis.RIGHT_Y);
+
+        for (FlypadListener flypadListener : frameAlignedListeners.snapshot()) {
+            flypadListener.onFlypadAxisValuesChanged(helper, lx, ly, rx, ry);
         }
+
+        latency.record(Stage.LISTENER_RETURNED, timestampNanos);
     }
-}
\ No newline at end of file
+}
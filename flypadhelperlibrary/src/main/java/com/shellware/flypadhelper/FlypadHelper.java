@@ -4,445 +4,757 @@
 
 package com.shellware.flypadhelper;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanFilter;
-import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Build;
-import android.os.Bundle;
-import android.os.HandlerThread;
-import android.os.Message;
-import android.os.ParcelUuid;
-import android.os.Process;
 import android.util.Log;
 
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+import com.shellware.flypadhelper.FlypadLatencyMetrics.Stage;
+import com.shellware.flypadhelper.FlypadListener.DispatchMode;
 import com.shellware.flypadhelper.FlypadListener.State;
 
-import java.util.Collections;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
-import java.util.UUID;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+/**
+ * Connects to a Flypad and delivers its state to listeners.
+ * <p>
+ * The connection state machine runs on the flypad thread: transport callbacks, scan and connect requests
+ * and the helper's timeouts are all posted there, so its fields need no locking. Reports are the exception,
+ * they are decoded and dispatched on the thread that received them and only read the volatile state.
+ */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-public class FlypadHelper extends BroadcastReceiver {
+public class FlypadHelper {
     private final String CLASS_NAME = this.getClass().getSimpleName();
 
-    private static final UUID FLYPAD_CONTROLLER_UUID = UUID.fromString("9e35fa00-4344-44d4-a2e2-0c7f6046878b");
-    private static final UUID FLYPAD_CONTROLLER_NOTIFY_UUID = UUID.fromString("9e35fa01-4344-44d4-a2e2-0c7f6046878b");
-    private static final UUID FLYPAD_CONTROLLER_NOTIFY_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-
-    private static final UUID FLYPAD_INFORMATION_UUID = UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb");
+    private final FlypadTransport transport;
 
-    private static final UUID SERIAL_NUMBER = UUID.fromString("00002a25-0000-1000-8000-00805f9b34fb");
-    private static final UUID HARDWARE_VERSION = UUID.fromString("00002a27-0000-1000-8000-00805f9b34fb");
-    private static final UUID FIRMWARE_VERSION = UUID.fromString("00002a26-0000-1000-8000-00805f9b34fb");
-    private static final UUID SOFTWARE_VERSION = UUID.fromString("00002a28-0000-1000-8000-00805f9b34fb");
+    // written on the flypad thread only
+    private volatile State state = State.UNKNOWN;
 
-//    private static final UUID BATTERY_STATUS_UUID = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+    private final FlypadInfo flypadInfo;
+    private final FlypadReportDecoder decoder = new FlypadReportDecoder();
+    private final FlypadLatencyMetrics latencyMetrics = new FlypadLatencyMetrics();
+    private final FlypadLinkMetrics linkMetrics = new FlypadLinkMetrics();
 
-    private static final int STATE_MESSAGE = 0;
-    private static final int ACTION_MESSAGE = 1;
+    private volatile FlypadAxisPredictor axisPredictor;
+    private volatile FlypadCaptureWriter captureWriter;
+    private volatile Thread replayThread;
 
-    private final Context ctx;
+    private final FlypadThreadPool threadPool;
+    private final FlypadHandler flypadHandler;
 
-    private final DoubleRange sourceRange = new DoubleRange() {
-        @Override
-        public double getLower() {
-            return -110;
-        }
+    private final int deviceId;
+    @Nullable
+    private final FlypadGroup group;
+    private volatile String deviceAddress;
 
-        @Override
-        public double getUpper() {
-            return 110;
-        }
-    };
-    private final DoubleRange targetRange = new DoubleRange() {
-        @Override
-        public double getLower() {
-            return -1;
-        }
+    private static final long CONNECTING_TIMEOUT_MILLIS = 5000;
 
-        @Override
-        public double getUpper() {
-            return 1;
-        }
-    };
+    // a reconnect falls back to scanning once the direct connect took this long
+    private static final long RECONNECT_SCAN_DELAY_MILLIS = 1500;
 
-    private final BluetoothAdapter bluetoothAdapter;
-    private final BluetoothLeScanner bluetoothLeScanner;
+    // cached device information is refreshed this long after connecting, once reports flow
+    private static final long DEVICE_INFO_REFRESH_DELAY_MILLIS = 2000;
 
-    private BluetoothGatt bluetoothGatt;
-    private BluetoothGattCharacteristic notifyCharacteristic;
-    private BluetoothGattDescriptor notifyDescriptor;
+    private final Runnable connectingTimeoutRunnable;
+    private final Runnable reconnectScanRunnable;
+    private final Runnable deviceInfoRefreshRunnable;
 
-    private State state = State.UNKNOWN;
+    // the device information of the controller connecting was cached, its reads were skipped
+    private boolean deviceInfoCached;
 
-    private List<BluetoothGattCharacteristic> characteristics;
+    private volatile boolean wasConnected = false;
 
-    private final FlypadInfo flypadInfo;
+    // a direct connect to the last address is racing a fallback scan
+    private boolean reconnecting;
+    // when the link to a connected controller was lost, or the adapter came back after it was lost while off,
+    // 0 once it is connected again
+    private long linkLostNanos;
 
-    private final HandlerThread flypadThread;
-    private final FlypadHandler flypadHandler;
+    private final FlypadLatencyHistogram reconnectTimes = new FlypadLatencyHistogram();
 
-    private final Runnable connectingTimeoutRunnable;
+    private final FlypadScanScheduler scanScheduler;
 
-    private boolean wasConnected = false;
+    // the app asked for a scan, it resumes once the adapter is enabled again
+    private boolean scanRequested;
 
     public FlypadHelper(final Context ctx) {
-        logEvent(Log.INFO, CLASS_NAME, "create");
+        this(ctx, new FlypadBleTransport(ctx));
+    }
 
-        this.ctx = ctx;
-        flypadInfo = new FlypadInfo(ctx, this);
+    /**
+     * Creates a helper talking to the controller through a transport, e.g. a {@link FlypadLoopbackTransport}
+     * to run without a Flypad.
+     *
+     * @param ctx       context holding the mapping preferences
+     * @param transport transport to use, owned and closed by the helper
+     */
+    public FlypadHelper(final Context ctx, @NonNull final FlypadTransport transport) {
+        this(ctx, transport, new FlypadThreadPool("arpro4-flypad-thread", 1), 0, null);
+    }
 
-        final BluetoothManager bluetoothManager = (BluetoothManager) ctx.getSystemService(Context.BLUETOOTH_SERVICE);
-        bluetoothAdapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
-        bluetoothLeScanner = bluetoothAdapter != null ? bluetoothAdapter.getBluetoothLeScanner() : null;
+    FlypadHelper(final Context ctx, @NonNull final FlypadTransport transport, @NonNull final FlypadThreadPool threadPool,
+                 final int deviceId, @Nullable final FlypadGroup group) {
+        logEvent(Log.INFO, CLASS_NAME, "create deviceId=" + deviceId);
 
-        ctx.registerReceiver(this, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+        this.deviceId = deviceId;
+        this.group = group;
 
-        flypadThread = new HandlerThread("arpro4-flypad-thread", Process.THREAD_PRIORITY_MORE_FAVORABLE);
-        flypadThread.start();
+        flypadInfo = new FlypadInfo(ctx, this);
 
-        flypadHandler = new FlypadHandler(this, flypadThread.getLooper());
+        this.threadPool = threadPool;
+        flypadHandler = new FlypadHandler(this, threadPool.acquire());
 
         connectingTimeoutRunnable = () -> {
             if (state != State.CONNECTED) {
-                btleGattCallback.onConnectionStateChange(null, 0, BluetoothAdapter.STATE_DISCONNECTED);
+                stateMachine.onDisconnected();
             }
         };
+
+        deviceInfoRefreshRunnable = () -> {
+            if (state == State.CONNECTED) transport.readDeviceInfo();
+        };
+
+        this.transport = transport;
+        transport.setCallback(transportCallback);
+
+        scanScheduler = new FlypadScanScheduler(transport, flypadHandler);
+
+        reconnectScanRunnable = () -> {
+            if (reconnecting) scanScheduler.start();
+        };
     }
     
     public void destroy() {
         logEvent(Log.INFO, CLASS_NAME, "destroy");
 
-        ctx.unregisterReceiver(this);
+        stopReplay();
+        stopCapture();
 
-        stopLeScan();
+        // drops pending timeouts and transport callbacks, then tears down on the flypad thread after anything running there
+        flypadHandler.removeCallbacksAndMessages(null);
+        flypadHandler.removeAllListeners();
 
-        if (bluetoothAdapter != null && bluetoothAdapter.isEnabled() && bluetoothGatt != null) {
-            if (notifyCharacteristic != null && notifyDescriptor != null) {
-                logEvent(CLASS_NAME, "disabling notifications");
+        flypadHandler.post(() -> {
+            stopScan();
+            transport.close();
+            releaseDevice();
+        });
 
-                bluetoothGatt.setCharacteristicNotification(notifyCharacteristic, false);
-                notifyDescriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                bluetoothGatt.writeDescriptor(notifyDescriptor);
-            }
+        flypadInfo.destroy();
+        threadPool.release();
+    }
 
-            logEvent(CLASS_NAME, "deallocating gatt");
-            bluetoothGatt.disconnect();
-            bluetoothGatt.close();
-        }
+    /**
+     * Gets the id telling this helper's controller apart from the others of its {@link FlypadGroup}.
+     *
+     * @return the index of the controller within its group, {@code 0} for a helper created on its own
+     */
+    public int getDeviceId() {
+        return deviceId;
+    }
 
-        flypadHandler.removeCallbacks(connectingTimeoutRunnable);
-        flypadHandler.removeMessages(STATE_MESSAGE);
-        flypadHandler.removeMessages(ACTION_MESSAGE);
-        flypadHandler.removeAllListeners();
+    /**
+     * @return the address of the controller connecting or connected, {@code null} if there is none
+     */
+    @Nullable
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
 
-        flypadThread.quitSafely();
+    private void releaseDevice() {
+        deviceAddress = null;
+        if (group != null) group.release(this);
     }
 
     public FlypadInfo getFlypadInfo() {
         return flypadInfo;
     }
 
+    FlypadReportDecoder getDecoder() {
+        return decoder;
+    }
+
+    void postToFlypadThread(@NonNull final Runnable runnable) {
+        flypadHandler.post(runnable);
+    }
+
+    /**
+     * Gets the input latency histograms, measured from report arrival to the end of each dispatch stage.
+     *
+     * @return latency metrics, always recording
+     */
+    public FlypadLatencyMetrics getLatencyMetrics() {
+        return latencyMetrics;
+    }
+
+    /**
+     * Gets notification stream statistics of the current connection.
+     *
+     * @return a snapshot of the link statistics
+     */
+    public FlypadLinkMetrics.Snapshot getLinkMetrics() {
+        return linkMetrics.snapshot();
+    }
+
+    /**
+     * Starts writing every notification of the controller to a capture file, see {@link FlypadCaptureWriter}.
+     * A capture already running is stopped first.
+     *
+     * @param file file to write, replaced if it exists
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public void startCapture(@NonNull final File file) throws IOException {
+        stopCapture();
+
+        captureWriter = new FlypadCaptureWriter(file);
+        logEvent(Log.INFO, CLASS_NAME, "capture started file=" + file);
+    }
+
+    /** Stops the running capture, if any, and closes its file. */
+    public void stopCapture() {
+        final FlypadCaptureWriter capture = captureWriter;
+        if (capture == null) return;
+
+        captureWriter = null;
+
+        try {
+            capture.close();
+            logEvent(Log.INFO, CLASS_NAME, String.format(Locale.US, "capture stopped recorded=%d dropped=%d",
+                                                         capture.getRecordedCount(), capture.getDroppedCount()));
+        } catch (IOException e) {
+            logEvent(Log.ERROR, CLASS_NAME, "capture failed", e);
+        }
+    }
+
+    public boolean isCapturing() {
+        return captureWriter != null;
+    }
+
+    /**
+     * Plays a capture through the report pipeline on a background thread, as if the reports arrived from
+     * the controller. Listeners, metrics and the axis predictor see them exactly like live reports.
+     * A replay already running is stopped first. Replays need the helper to themselves, live reports
+     * arriving while a replay runs are dropped.
+     *
+     * @param file  capture to play
+     * @param speed playback speed, see {@link FlypadReplay}
+     *
+     * @throws IOException           if the capture cannot be opened
+     * @throws IllegalStateException if a controller is connecting or connected or a scan is running
+     */
+    public void startReplay(@NonNull final File file, final double speed) throws IOException {
+        if (state == State.CONNECTING || state == State.CONNECTED || scanScheduler.isScanning()) {
+            throw new IllegalStateException("replay needs a disconnected helper and no scan running, state=" + state);
+        }
+
+        stopReplay();
+
+        final FlypadCaptureReader reader = new FlypadCaptureReader(file);
+        final FlypadReplay replay;
+
+        try {
+            replay = new FlypadReplay(reader, speed);
+        } catch (IllegalArgumentException e) {
+            reader.close();
+            throw e;
+        }
+
+        replayThread = new Thread(() -> {
+            try {
+                // reports replayed faster than captured are timestamped ahead of the clock, latency is measured from when they were played
+                final long played = replay.run((timestamp, report) -> onReport(timestamp, Math.min(timestamp, System.nanoTime()), report));
+                logEvent(Log.INFO, CLASS_NAME, "replay finished played=" + played);
+            } catch (InterruptedException e) {
+                logEvent(Log.INFO, CLASS_NAME, "replay stopped");
+            } finally {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logEvent(Log.WARN, CLASS_NAME, "closing capture failed", e);
+                }
+            }
+        }, "flypad-replay");
+
+        replayThread.setPriority(Thread.MAX_PRIORITY);
+        replayThread.start();
+
+        logEvent(Log.INFO, CLASS_NAME, "replay started file=" + file + " speed=" + speed);
+    }
+
+    /** Stops the running replay, if any, and waits for it to finish. */
+    public void stopReplay() {
+        final Thread thread = replayThread;
+        if (thread == null) return;
+
+        replayThread = null;
+        thread.interrupt();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isReplaying() {
+        final Thread thread = replayThread;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Runs a notification through the report pipeline, called on the GATT callback thread or the replay thread.
+     *
+     * @param timestamp    arrival time of the notification, paces link metrics and the axis predictor
+     * @param arrivalNanos {@link System#nanoTime()} latency is measured from, equal to {@code timestamp} for live reports
+     * @param response     notification payload
+     */
+    void onReport(final long timestamp, final long arrivalNanos, @NonNull final byte[] response) {
+        linkMetrics.onNotification(timestamp, response);
+
+        if (response.length < FlypadReportDecoder.REPORT_LENGTH) return;
+
+        final FlypadAxisPredictor predictor = axisPredictor;
+        final long state = predictor == null ? decoder.decode(response) : decoder.decode(response, predictor, timestamp);
+        final int changed = flypadInfo.setState(state);
+
+        latencyMetrics.record(Stage.DECODED, arrivalNanos);
+
+        boolean dispatched = flypadHandler.dispatchRaw(state, changed, arrivalNanos);
+
+        // an idle controller stops here, nothing changed so nothing is dispatched
+        if (changed != 0) {
+            dispatched |= flypadHandler.dispatchReportDirect(state, changed);
+            flypadHandler.postReport(state, changed, arrivalNanos);
+        } else {
+            flypadHandler.postDroppedChanges(state, arrivalNanos);
+        }
+
+        if (dispatched) latencyMetrics.record(Stage.DIRECT_LISTENER_RETURNED, arrivalNanos);
+    }
+
+    /**
+     * Gets the time it took to regain control after the link dropped, from losing the connection
+     * until the controller was connected again, whether directly or through a scan. When Bluetooth was
+     * switched off meanwhile the time starts once it is switched back on.
+     *
+     * @return the reconnect time histogram, always recording
+     */
+    public FlypadLatencyHistogram getReconnectTimes() {
+        return reconnectTimes;
+    }
+
+    /**
+     * Gets the time it took scans to find a controller, from starting the scan until a controller was picked.
+     *
+     * @return the discovery time histogram, always recording
+     */
+    public FlypadLatencyHistogram getDiscoveryTimes() {
+        return scanScheduler.getDiscoveryTimes();
+    }
+
+    public FlypadScanSchedule getScanSchedule() {
+        return scanScheduler.getSchedule();
+    }
+
+    /**
+     * Sets how scans step back from a low latency burst to low power windows, see {@link FlypadScanSchedule}.
+     * It is applied on the flypad thread, where a running scan starts over with the new schedule.
+     *
+     * @param scanSchedule schedule of the following scans
+     */
+    public void setScanSchedule(@NonNull final FlypadScanSchedule scanSchedule) {
+        logEvent(Log.INFO, CLASS_NAME, "setScanSchedule " + scanSchedule);
+        flypadHandler.post(() -> scanScheduler.setSchedule(scanSchedule));
+    }
+
+    /**
+     * Forgets the controller last connected, the next connection starts with a scan and may pick up another Flypad.
+     */
+    public void forgetLastDevice() {
+        flypadInfo.setLastAddress(null);
+    }
+
     public State getState() { return state; }
 
     public boolean isConnected() { return (state == State.CONNECTED); }
 
     public boolean wasPreviouslyConnected() { return wasConnected; }
 
+    /**
+     * Changes the ranges axis values are scaled with.
+     *
+     * @param sourceRange range of normalized raw axis values, {@link FlypadAxisTable#SOURCE_RANGE} by default
+     * @param targetRange range reported to listeners, {@link FlypadAxisTable#TARGET_RANGE} by default
+     */
+    public void setAxisRanges(@NonNull final DoubleRange sourceRange, @NonNull final DoubleRange targetRange) {
+        decoder.getAxisTable().rebuild(sourceRange, targetRange);
+    }
+
+    /**
+     * Changes the conditioning of one axis. The curve is compiled into the axis lookup table and
+     * applied before any listener sees the value, reports decoded afterwards use the new curve.
+     *
+     * @param axis  axis to condition
+     * @param curve conditioning curve, {@link FlypadAxisCurve#LINEAR} by default
+     */
+    public void setAxisCurve(@NonNull final FlypadAxis axis, @NonNull final FlypadAxisCurve curve) {
+        decoder.getAxisTable().setCurve(axis, curve);
+    }
+
+    /**
+     * Changes the conditioning of all axes at once, see {@link #setAxisCurve}.
+     *
+     * @param curve conditioning curve applied to every axis
+     */
+    public void setAxisCurves(@NonNull final FlypadAxisCurve curve) {
+        decoder.getAxisTable().setCurves(curve);
+    }
+
+    @NonNull
+    public FlypadAxisCurve getAxisCurve(@NonNull final FlypadAxis axis) {
+        return decoder.getAxisTable().getCurve(axis);
+    }
+
+    /**
+     * Gets the scaled value of an axis from a packed state word, e.g. one passed to a {@link FlypadRawListener}.
+     *
+     * @param state packed state word
+     * @param axis  axis to read
+     *
+     * @return the axis value scaled with this helper's axis ranges and curves, as listeners see it
+     */
+    public float getAxis(final long state, @NonNull final FlypadAxis axis) {
+        return decoder.getAxis(state, axis);
+    }
+
+    /**
+     * Enables stick motion prediction. Axis values seen by all listeners, including raw listeners,
+     * are then extrapolated positions rather than measured ones. The predictor is fed from the
+     * GATT callback thread only and must not be shared with another helper.
+     *
+     * @param axisPredictor predictor to use, {@code null} to report measured positions
+     */
+    public void setAxisPredictor(@Nullable final FlypadAxisPredictor axisPredictor) {
+        this.axisPredictor = axisPredictor;
+    }
+
+    @Nullable
+    public FlypadAxisPredictor getAxisPredictor() {
+        return axisPredictor;
+    }
+
     public boolean addFlypadListener(FlypadListener flypadListener) {
-        return flypadHandler.addFlypadListener(flypadListener);
+        return addFlypadListener(flypadListener, DispatchMode.MAIN_THREAD);
+    }
+
+    /**
+     * Registers a listener.
+     * <p>
+     * {@link DispatchMode#FRAME_ALIGNED} listeners receive the newest axis values at most once per
+     * display frame, state, battery and button changes are still delivered one by one and in order.
+     * {@link DispatchMode#DIRECT} listeners skip both thread hops and are called on the thread that
+     * decoded the report, usually a binder thread, so they must not block or touch views.
+     *
+     * @param flypadListener listener to add
+     * @param mode           how events are delivered to the listener
+     *
+     * @return {@code true} if the listener was not already registered
+     */
+    public boolean addFlypadListener(FlypadListener flypadListener, DispatchMode mode) {
+        return flypadHandler.addFlypadListener(flypadListener, mode);
     }
 
     public boolean removeFlypadListener(FlypadListener flypadListener) {
         return flypadHandler.removeFlypadListener(flypadListener);
     }
 
+    /**
+     * Registers a listener receiving the packed controller state of every report.
+     *
+     * @param flypadRawListener listener to add
+     *
+     * @return {@code true} if the listener was not already registered
+     */
+    public boolean addFlypadRawListener(FlypadRawListener flypadRawListener) {
+        return flypadHandler.addFlypadRawListener(flypadRawListener);
+    }
+
+    public boolean removeFlypadRawListener(FlypadRawListener flypadRawListener) {
+        return flypadHandler.removeFlypadRawListener(flypadRawListener);
+    }
+
+    /**
+     * Scans for a controller following the scan schedule, starting over with a low latency burst.
+     * A scan interrupted by the adapter being disabled resumes once it is enabled again.
+     * The scan starts on the flypad thread, listeners see the state change.
+     */
     public void startLeScan() {
-        if (bluetoothAdapter != null &&
-                bluetoothAdapter.isEnabled() &&
-                bluetoothLeScanner != null &&
-                state != State.CONNECTED) {
+        flypadHandler.post(this::startScan);
+    }
 
-            final ScanFilter scanFilter = new ScanFilter.Builder()
-                    .setServiceUuid(ParcelUuid.fromString(FLYPAD_CONTROLLER_UUID.toString()))
-                    .build();
+    public void stopLeScan() {
+        flypadHandler.post(this::stopScan);
+    }
 
-            final ScanSettings scanSettings = new ScanSettings.Builder()
-                    .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
-                    .setReportDelay(0)
-                    .build();
+    private void startScan() {
+        scanRequested = true;
 
-            bluetoothLeScanner.startScan(Collections.singletonList(scanFilter), scanSettings, scanCallback);
+        if (transport.isAvailable() && state != State.CONNECTED && !reconnecting) {
+            // a transport may find a controller right away, the state must already be SCANNING by then
             sendStateChange(State.SCANNING);
+            scanScheduler.start();
         }
     }
 
-    public void stopLeScan() {
-        if (bluetoothAdapter != null && bluetoothLeScanner != null) {
-            bluetoothLeScanner.stopScan(scanCallback);
-            if (state == State.SCANNING) sendStateChange(State.DISCONNECTED);
+    /**
+     * Connects straight to the last controller, skipping the scan. If it is still connecting after
+     * {@link #RECONNECT_SCAN_DELAY_MILLIS} a low latency scan runs alongside as a fallback in case the controller
+     * came back under another address, it only accepts a controller advertising the name cached for the last one.
+     * Starts a normal scan when no controller is known.
+     */
+    private void reconnect() {
+        final String address = flypadInfo.getLastAddress();
+
+        if (address == null || (group != null && !group.claim(this, address))) {
+            startScan();
+            return;
         }
-    }
 
-    private final ScanCallback scanCallback = new ScanCallback() {
-        @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            super.onScanResult(callbackType, result);
+        logEvent(Log.INFO, CLASS_NAME, "reconnecting to " + address);
 
-            final BluetoothDevice device = result.getDevice();
+        reconnecting = true;
+        deviceAddress = address;
+        sendStateChange(State.CONNECTING);
 
-            if (device != null && device.getName() != null) {
-                final String msg = String.format(Locale.US, "Found %s - %s",device.getName(), device.getAddress());
-                logEvent(Log.INFO, CLASS_NAME, msg);
+        flypadHandler.removeCallbacks(connectingTimeoutRunnable);
+        flypadHandler.postDelayed(connectingTimeoutRunnable, CONNECTING_TIMEOUT_MILLIS);
 
-                flypadInfo.setName(device.getName());
+        // delayed so a quick direct connect does not spend a scan start
+        flypadHandler.removeCallbacks(reconnectScanRunnable);
+        flypadHandler.postDelayed(reconnectScanRunnable, RECONNECT_SCAN_DELAY_MILLIS);
 
-                bluetoothLeScanner.stopScan(scanCallback);
-                sendStateChange(State.CONNECTING);
+        connect(address);
+    }
 
-                flypadHandler.removeCallbacks(connectingTimeoutRunnable);
-                flypadHandler.postDelayed(connectingTimeoutRunnable, 5000);
+    private void stopScan() {
+        scanRequested = false;
+        pauseLeScan();
+    }
 
-                bluetoothGatt = device.connectGatt(ctx, false, btleGattCallback);
-            } else {
-                logEvent(Log.INFO, CLASS_NAME, "Discarding " + result.toString());
-            }
+    private void pauseLeScan() {
+        scanScheduler.stop();
+        if (state == State.SCANNING) sendStateChange(State.DISCONNECTED);
+    }
+
+    // controllers connected before skip the device information reads, it is refreshed once reports flow
+    private void connect(@NonNull final String address) {
+        deviceInfoCached = flypadInfo.getDeviceInfoCache().load(address, flypadInfo);
+        transport.connect(address, !deviceInfoCached);
+    }
+
+    // moves transport callbacks onto the flypad thread, reports stay on the thread that received them
+    private final FlypadTransport.Callback transportCallback = new FlypadTransport.Callback() {
+
+        @Override
+        public void onAvailabilityChanged(final boolean available) {
+            flypadHandler.post(() -> stateMachine.onAvailabilityChanged(available));
         }
 
         @Override
-        public void onBatchScanResults(List<ScanResult> results) {
-            super.onBatchScanResults(results);
+        public void onDeviceFound(@NonNull final String name, @NonNull final String address) {
+            flypadHandler.post(() -> stateMachine.onDeviceFound(name, address));
         }
 
         @Override
-        public void onScanFailed(int errorCode) {
-            super.onScanFailed(errorCode);
+        public void onDiscoveryFailed(final long retryMillis) {
+            flypadHandler.post(() -> stateMachine.onDiscoveryFailed(retryMillis));
+        }
+
+        @Override
+        public void onLinkUp() {
+            flypadHandler.post(stateMachine::onLinkUp);
         }
-    };
 
-    private final BluetoothGattCallback btleGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onDeviceInfo(@NonNull final FlypadTransport.DeviceInfo info, @NonNull final String value) {
+            flypadHandler.post(() -> stateMachine.onDeviceInfo(info, value));
+        }
 
         @Override
-        public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
-            super.onServicesDiscovered(gatt, status);
+        public void onReady() {
+            flypadHandler.post(stateMachine::onReady);
+        }
 
-            logEvent(CLASS_NAME, "onServicesDiscovered");
+        @Override
+        public void onReport(final long timestampNanos, @NonNull final byte[] report) {
+            stateMachine.onReport(timestampNanos, report);
+        }
 
-            if (BuildConfig.DEBUG) {
-                for (BluetoothGattService service : bluetoothGatt.getServices()) {
-                    logEvent(CLASS_NAME, "service=" + service.getUuid().toString() + " type=" + service.getType());
+        @Override
+        public void onDisconnected() {
+            flypadHandler.post(stateMachine::onDisconnected);
+        }
+    };
 
-                    for (BluetoothGattCharacteristic bgc : service.getCharacteristics()) {
-                        logEvent(CLASS_NAME, "     characteristic=" + bgc.getUuid());
+    // runs on the flypad thread, except onReport
+    private final FlypadTransport.Callback stateMachine = new FlypadTransport.Callback() {
 
-                        for (BluetoothGattDescriptor desc : bgc.getDescriptors()) {
-                            logEvent(CLASS_NAME, "          descriptor=" + desc.getUuid() + " " + desc.getPermissions());
-                        }
-                    }
+        @Override
+        public void onAvailabilityChanged(final boolean available) {
+            if (available) {
+                // announced first, a reconnect started afterwards moves the state on
+                sendStateChange(State.BLE_ENABLED);
+                if (wasConnected) {
+                    // the time Bluetooth was off does not count towards the reconnect
+                    if (linkLostNanos != 0) linkLostNanos = System.nanoTime();
+                    reconnect();
+                } else if (scanRequested) {
+                    startScan();
+                }
+            } else {
+                if (state == State.CONNECTED || state == State.CONNECTING) {
+                    onDisconnected();
+                } else {
+                    pauseLeScan();
                 }
+                sendStateChange(State.BLE_DISABLED);
             }
-
-            final BluetoothGattService service = gatt.getService(FLYPAD_INFORMATION_UUID);
-            if (service == null) return;
-
-            characteristics = service.getCharacteristics();
-
-            gatt.readCharacteristic(characteristics.get(0));
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
-
-            final String value = new String(characteristic.getValue());
+        public void onDeviceFound(@NonNull final String name, @NonNull final String address) {
+            // the scan may still deliver results after a controller was picked
+            if (state != State.SCANNING && !reconnecting) return;
+
+            if (reconnecting) {
+                if (address.equals(deviceAddress)) {
+                    // the direct connect already targets it and completes now that it advertises again
+                    scanScheduler.onDeviceFound();
+                    return;
+                }
 
-            logEvent(CLASS_NAME, characteristic.getUuid() + " = " + value);
+                // only the lost controller may win the race, under another address it is recognized by its cached name,
+                // anything else is ignored until the connecting timeout falls back to a normal scan
+                if (!name.equals(flypadInfo.getDeviceInfoCache().loadName(deviceAddress))) return;
+            }
 
-            if (characteristic.getUuid().equals(SERIAL_NUMBER)) flypadInfo.setSerial(value);
-            if (characteristic.getUuid().equals(HARDWARE_VERSION)) flypadInfo.setHardwareVersion(value);
-            if (characteristic.getUuid().equals(SOFTWARE_VERSION)) flypadInfo.setSoftwareVersion(value);
-            if (characteristic.getUuid().equals(FIRMWARE_VERSION)) flypadInfo.setFirmwareVersion(value);
+            if (group != null && !group.claim(FlypadHelper.this, address)) return;
 
-            characteristics.remove(0);
+            scanScheduler.onDeviceFound();
 
-            if (characteristics.size() > 0) {
-                gatt.readCharacteristic(characteristics.get(0));
+            if (reconnecting) {
+                // the scan won the race, the controller is back under another address
+                logEvent(Log.INFO, CLASS_NAME, "reconnect scan found " + address + " instead of " + deviceAddress);
+                transport.disconnect();
             } else {
-                logEvent(CLASS_NAME, "enabling notifications");
-
-                final BluetoothGattService service = gatt.getService(FLYPAD_CONTROLLER_UUID);
+                sendStateChange(State.CONNECTING);
+            }
 
-                notifyCharacteristic = service.getCharacteristic(FLYPAD_CONTROLLER_NOTIFY_UUID);
-                notifyDescriptor = notifyCharacteristic.getDescriptor(FLYPAD_CONTROLLER_NOTIFY_DESCRIPTOR_UUID);
+            deviceAddress = address;
+            flypadInfo.getDeviceInfoCache().storeName(address, name);
 
-                bluetoothGatt.setCharacteristicNotification(notifyCharacteristic, true);
-                notifyDescriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                bluetoothGatt.writeDescriptor(notifyDescriptor);
+            flypadHandler.removeCallbacks(connectingTimeoutRunnable);
+            flypadHandler.postDelayed(connectingTimeoutRunnable, CONNECTING_TIMEOUT_MILLIS);
 
-                sendStateChange(State.CONNECTED);
-            }
+            connect(address);
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
-            super.onCharacteristicChanged(gatt, characteristic);
-
-            final byte[] response = characteristic.getValue();
-
-//            final StringBuilder data = new StringBuilder(20);
-//
-//            for (byte byteChar : response) {
-//                data.append(String.format(Locale.US, "[%d] ", byteChar));
-//            }
-//
-//            logEvent(CLASS_NAME, "raw=" + data.toString());
-
-            final Bundle bundle = new Bundle();
-
-            flypadInfo.setBatteryLevel(bundle, response[0]);
-            flypadInfo.setAxes(bundle, decodeAxis(response[5]), decodeAxis(response[6]), decodeAxis(response[3]), decodeAxis(response[4]));
-            
-            flypadInfo.setButtons(bundle,
-                                  (response[1] & 16) == 16,
-                                  (response[1] & 8) == 8,
-                                  (response[1] & 1) == 1, 
-                                  (response[1] & 2) == 2,
-                                  (response[1] & 4) == 4,
-                                  (response[2] & 1) == 1, 
-                                  (response[1] & 64) == 64,
-                                  (response[1] & 128) == 128,
-                                  (response[1] & 32) == 32,
-                                  (response[2] & 2) == 2,
-                                  (response[2] & 4) == 4);
-
-            if (!bundle.isEmpty()) {
-                final Message msg = Message.obtain();
-                msg.what = ACTION_MESSAGE;
-                msg.setData(bundle);
-                flypadHandler.sendMessage(msg);
-            }
-        }
-
-        private float decodeAxis(final byte value) {
-            final int normal;
-
-            // normalize axis to range -127 to +127
-            if (value == -128) {
-                normal = 0;
-            } else {
-                if (value > -1) {
-                    // left side
-                    normal =  Math.abs(127 - value) * -1;
-                } else {
-                    // right side
-                    normal = value + 128;
-                }
-            }
-
-            // now scale it to float range -1 to +1
-            return (float) targetRange.scaleFrom(normal, sourceRange);
+        public void onDiscoveryFailed(final long retryMillis) {
+            scanScheduler.onDiscoveryFailed(retryMillis);
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
-
-            logEvent(CLASS_NAME, "onDescriptorWrite");
+        public void onLinkUp() {
+            linkMetrics.reset();
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
+        public void onDeviceInfo(@NonNull final FlypadTransport.DeviceInfo info, @NonNull final String value) {
+            flypadInfo.setDeviceInfo(info, value);
 
-            logEvent(CLASS_NAME, "onCharacteristicWrite");
+            final String address = deviceAddress;
+            if (address != null) flypadInfo.getDeviceInfoCache().store(address, info, value);
         }
 
         @Override
-        public void onConnectionStateChange(@Nullable final BluetoothGatt gatt, final int status, final int newState) {
-            if (gatt != null) super.onConnectionStateChange(gatt, status, newState);
+        public void onReady() {
+            flypadHandler.removeCallbacks(reconnectScanRunnable);
 
-            logEvent(CLASS_NAME, "onConnectionStateChange newState=" + newState);
+            if (reconnecting) {
+                reconnecting = false;
+                scanScheduler.stop();
+            }
+
+            if (linkLostNanos != 0) {
+                final long reconnectNanos = System.nanoTime() - linkLostNanos;
+                linkLostNanos = 0;
 
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                bluetoothGatt.discoverServices();
+                reconnectTimes.record(reconnectNanos);
+                logEvent(Log.INFO, CLASS_NAME, String.format(Locale.US, "reconnected in %.1fms", reconnectNanos / 1e6));
             }
 
-            if (newState == BluetoothProfile.STATE_DISCONNECTED && sendStateChange(State.DISCONNECTED)) {
-                wasConnected = true;
+            if (deviceInfoCached) flypadHandler.postDelayed(deviceInfoRefreshRunnable, DEVICE_INFO_REFRESH_DELAY_MILLIS);
 
-                if (bluetoothGatt != null) {
-                    bluetoothGatt.disconnect();
-                    bluetoothGatt.close();
-                    bluetoothGatt = null;
-                }
+            flypadInfo.setLastAddress(deviceAddress);
+            sendStateChange(State.CONNECTED);
+        }
 
-                if (bluetoothAdapter != null && bluetoothAdapter.isEnabled()) startLeScan();
-            }
+        @Override
+        public void onReport(final long timestampNanos, @NonNull final byte[] report) {
+            // a replay feeds the pipeline on its own thread, a second producer would corrupt it
+            if (isReplaying()) return;
+
+            final FlypadCaptureWriter capture = captureWriter;
+            if (capture != null) capture.record(timestampNanos, report);
+
+            FlypadHelper.this.onReport(timestampNanos, timestampNanos, report);
         }
-    };
 
-    @Override
-    public void onReceive(Context context, Intent intent) {
-        final String action = intent.getAction();
-        if (action == null) return;
+        @Override
+        public void onDisconnected() {
+            final boolean linkLost = state == State.CONNECTED;
+            final boolean wasReconnecting = reconnecting;
 
-        logEvent(CLASS_NAME, "onReceive=" + action);
+            reconnecting = false;
 
-        if (action.equals(BluetoothAdapter.ACTION_STATE_CHANGED)) {
-            final int state = bluetoothAdapter.getState();
+            flypadHandler.removeCallbacks(reconnectScanRunnable);
+            flypadHandler.removeCallbacks(deviceInfoRefreshRunnable);
 
-            if (state == BluetoothAdapter.STATE_ON) {
-                if (wasConnected) {
-                    startLeScan();
-                }
-                sendStateChange(State.BLE_ENABLED);
-            } else {
-                if (state == BluetoothAdapter.STATE_OFF) {
-                    if (this.state == State.CONNECTED || this.state == State.CONNECTING) {
-                        btleGattCallback.onConnectionStateChange(null, 0, BluetoothAdapter.STATE_DISCONNECTED);
-                    } else {
-                        stopLeScan();
-                    }
-                    sendStateChange(State.BLE_DISABLED);
+            if (sendStateChange(State.DISCONNECTED)) {
+                wasConnected = true;
+                if (linkLost) linkLostNanos = System.nanoTime();
+
+                if (wasReconnecting) scanScheduler.stop();
+                transport.disconnect();
+                releaseDevice();
+
+                // a dropped link is reconnected directly, a failed attempt falls back to a normal scan
+                if (transport.isAvailable()) {
+                    if (linkLost) reconnect(); else startScan();
                 }
             }
         }
-    }
+    };
 
     private boolean sendStateChange(final State newState ) {
         if (newState != state) {
             logEvent(CLASS_NAME, "sendStateChange newState=" + newState.name() + " oldState=" + state);
 
-            final Message msg = Message.obtain();
-            msg.what = STATE_MESSAGE;
-
-            final Bundle bundle = new Bundle();
-            bundle.putInt("newState", newState.ordinal());
-            bundle.putInt("oldState", state.ordinal());
-            msg.setData(bundle);
-
-            flypadHandler.sendMessage(msg);
+            flypadHandler.obtainMessage(FlypadHandler.STATE_MESSAGE, newState.ordinal(), state.ordinal()).sendToTarget();
 
+            final State oldState = state;
             state = newState;
+
+            flypadHandler.dispatchStateDirect(newState, oldState);
             return true;
         }
         return false;
@@ -6,13 +6,18 @@ package com.shellware.flypadhelper;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.preference.PreferenceManager;
 
 import static com.shellware.flypadhelper.FlypadHelper.logEvent;
@@ -98,10 +103,8 @@ public class FlypadInfo {
 
 
     public class FlypadButtonMapping {
-        private FlypadButton button;
-        private FlypadButtonAction action;
-
-        private boolean pressed;
+        private final FlypadButton button;
+        private final FlypadButtonAction action;
 
         public FlypadButtonMapping(final FlypadButton button, final FlypadButtonAction action) {
             this.button = button;
@@ -117,7 +120,7 @@ public class FlypadInfo {
         }
 
         public String getKey() {
-            return "FLYPAD_" + button.name();
+            return BUTTON_KEYS[button.ordinal()];
         }
 
         public String getTitle() {
@@ -125,17 +128,29 @@ public class FlypadInfo {
         }
 
         public boolean isPressed() {
-            return pressed;
+            return (getPressedButtons() & (1 << button.ordinal())) != 0;
         }
 
+        /**
+         * Overrides the pressed state of the button until the controller next reports it pressed or released.
+         * Listeners are not notified.
+         */
         public void setPressed(boolean pressed) {
-            this.pressed = pressed;
+            final long bit = 1L << button.ordinal();
+            long current;
+            long next;
+
+            do {
+                current = pressedOverrides.get();
+                next = current | (bit << 32);
+                next = pressed ? next | bit : next & ~bit;
+            } while (!pressedOverrides.compareAndSet(current, next));
         }
     }
 
     public class FlypadAxisMapping {
-        private FlypadAxis axis;
-        private FlypadAxisAction action;
+        private final FlypadAxis axis;
+        private final FlypadAxisAction action;
 
         public FlypadAxisMapping(final FlypadAxis axis, final FlypadAxisAction action) {
             this.axis = axis;
@@ -151,7 +166,7 @@ public class FlypadInfo {
         }
 
         public String getKey() {
-            return "FLYPAD_" + axis.name();
+            return AXIS_KEYS[axis.ordinal()];
         }
 
         public String getTitle() {
@@ -159,8 +174,118 @@ public class FlypadInfo {
         }
     }
 
-    private final Context ctx;
+    /**
+     * Compiled mappings, never modified once published. A refresh builds and publishes a new instance,
+     * so readers on any thread see either the previous or the new mappings as a whole.
+     */
+    private static final class Mappings {
+        private final ArrayList<FlypadAxisMapping> axisMappings;
+        private final ArrayList<FlypadButtonMapping> buttonMappings;
+
+        // indexed by axis and button ordinal
+        private final FlypadAxisMapping[] axisMappingsByAxis;
+        private final FlypadButtonMapping[] buttonMappingsByButton;
+
+        // buttons mapped to each action indexed by action ordinal, bits as in FlypadReportDecoder.getButtons
+        private final int[] buttonsByAction;
+        private final int yawButtons;
+
+        private final FlypadAxisRemapper axisRemapper;
+
+        private Mappings(@NonNull final FlypadAxisMapping[] axisMappingsByAxis, @NonNull final FlypadButtonMapping[] buttonMappingsByButton) {
+            this.axisMappingsByAxis = axisMappingsByAxis;
+            this.buttonMappingsByButton = buttonMappingsByButton;
+
+            axisMappings = new ArrayList<>(Arrays.asList(axisMappingsByAxis));
+            buttonMappings = new ArrayList<>(Arrays.asList(buttonMappingsByButton));
+
+            buttonsByAction = new int[FlypadButtonAction.values().length];
+            for (FlypadButtonMapping mapping : buttonMappingsByButton) {
+                buttonsByAction[mapping.getAction().ordinal()] |= 1 << mapping.getButton().ordinal();
+            }
+
+            yawButtons = buttonsByAction[FlypadButtonAction.YAW_LEFT.ordinal()] | buttonsByAction[FlypadButtonAction.YAW_RIGHT.ordinal()];
+            axisRemapper = new FlypadAxisRemapper(axisMappings);
+        }
+
+        // copy of mappings with one button mapping replaced
+        private Mappings(@NonNull final Mappings mappings, @NonNull final FlypadButtonMapping mapping) {
+            final int index = mapping.getButton().ordinal();
+            final int bit = 1 << index;
+
+            axisMappings = mappings.axisMappings;
+            axisMappingsByAxis = mappings.axisMappingsByAxis;
+            axisRemapper = mappings.axisRemapper;
+
+            buttonMappingsByButton = mappings.buttonMappingsByButton.clone();
+            buttonMappingsByButton[index] = mapping;
+
+            buttonMappings = new ArrayList<>(mappings.buttonMappings);
+            buttonMappings.set(index, mapping);
+
+            buttonsByAction = mappings.buttonsByAction.clone();
+            buttonsByAction[mappings.buttonMappingsByButton[index].getAction().ordinal()] &= ~bit;
+            buttonsByAction[mapping.getAction().ordinal()] |= bit;
+
+            yawButtons = buttonsByAction[FlypadButtonAction.YAW_LEFT.ordinal()] | buttonsByAction[FlypadButtonAction.YAW_RIGHT.ordinal()];
+        }
+
+        // copy of mappings with one axis mapping replaced
+        private Mappings(@NonNull final Mappings mappings, @NonNull final FlypadAxisMapping mapping) {
+            final int index = mapping.getAxis().ordinal();
+
+            buttonMappings = mappings.buttonMappings;
+            buttonMappingsByButton = mappings.buttonMappingsByButton;
+            buttonsByAction = mappings.buttonsByAction;
+            yawButtons = mappings.yawButtons;
+
+            axisMappingsByAxis = mappings.axisMappingsByAxis.clone();
+            axisMappingsByAxis[index] = mapping;
+
+            axisMappings = new ArrayList<>(mappings.axisMappings);
+            axisMappings.set(index, mapping);
+
+            axisRemapper = new FlypadAxisRemapper(axisMappings);
+        }
+    }
+
+    private static final FlypadButton[] BUTTONS = FlypadButton.values();
+    private static final FlypadAxis[] AXES = FlypadAxis.values();
+
+    // preference keys indexed by button and axis ordinal
+    private static final String[] BUTTON_KEYS = new String[BUTTONS.length];
+    private static final String[] AXIS_KEYS = new String[AXES.length];
+
+    private static final HashMap<String, FlypadButton> BUTTONS_BY_NAME = new HashMap<>();
+    private static final HashMap<String, FlypadAxis> AXES_BY_NAME = new HashMap<>();
+    private static final HashMap<String, FlypadButton> BUTTONS_BY_KEY = new HashMap<>();
+    private static final HashMap<String, FlypadAxis> AXES_BY_KEY = new HashMap<>();
+    private static final HashMap<String, FlypadButtonAction> BUTTON_ACTIONS_BY_NAME = new HashMap<>();
+    private static final HashMap<String, FlypadAxisAction> AXIS_ACTIONS_BY_NAME = new HashMap<>();
+
+    static {
+        for (FlypadButton button : BUTTONS) {
+            BUTTON_KEYS[button.ordinal()] = "FLYPAD_" + button.name();
+            BUTTONS_BY_NAME.put(button.name(), button);
+            BUTTONS_BY_KEY.put(BUTTON_KEYS[button.ordinal()], button);
+        }
+
+        for (FlypadAxis axis : AXES) {
+            AXIS_KEYS[axis.ordinal()] = "FLYPAD_" + axis.name();
+            AXES_BY_NAME.put(axis.name(), axis);
+            AXES_BY_KEY.put(AXIS_KEYS[axis.ordinal()], axis);
+        }
+
+        for (FlypadButtonAction action : FlypadButtonAction.values()) BUTTON_ACTIONS_BY_NAME.put(action.name(), action);
+        for (FlypadAxisAction action : FlypadAxisAction.values()) AXIS_ACTIONS_BY_NAME.put(action.name(), action);
+    }
+
+    // address of the last connected controller, suffixed with the device id for all but the first controller of a group
+    private static final String LAST_ADDRESS_KEY = "FLYPAD_LAST_ADDRESS";
+
+    private final SharedPreferences prefs;
     private final FlypadHelper flypadHelper;
+    private final FlypadDeviceInfoCache deviceInfoCache;
 
     private String name;
     private String serial;
@@ -168,38 +293,35 @@ public class FlypadInfo {
     private String firmwareVersion;
     private String softwareVersion;
 
-    private short batteryLevel;
+    // last decoded controller state, see FlypadReportDecoder
+    private volatile long state = FlypadReportDecoder.CENTERED_STATE;
 
-    private float axisLeftY;
-    private float axisLeftX;
-    private float axisRightY;
-    private float axisRightX;
+    // buttons overridden with FlypadButtonMapping.setPressed until their next edge, mask in the high and values in the low 32 bits
+    private final AtomicLong pressedOverrides = new AtomicLong();
 
-    private boolean buttonLeftThumb;
-    private boolean buttonRightThumb;
+    private volatile Mappings mappings;
 
-    private boolean buttonOne;
-    private boolean buttonTwo;
-
-    private boolean buttonUpDown;
-
-    private boolean buttonA;
-    private boolean buttonB;
-
-    private boolean buttonLeftTop;
-    private boolean buttonLeftBottom;
-    private boolean buttonRightTop;
-    private boolean buttonRightBottom;
-
-    private ArrayList<FlypadAxisMapping> axisMappings;
-    private ArrayList<FlypadButtonMapping> buttonMappings;
+    // held strongly here, SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener mappingChangeListener = this::onMappingPreferenceChanged;
 
     public FlypadInfo(final Context ctx, final FlypadHelper flypadHelper) {
-        this.ctx = ctx;
+        this(PreferenceManager.getDefaultSharedPreferences(ctx), flypadHelper);
+    }
+
+    FlypadInfo(final SharedPreferences prefs, final FlypadHelper flypadHelper) {
+        this.prefs = prefs;
         this.flypadHelper = flypadHelper;
+        this.deviceInfoCache = new FlypadDeviceInfoCache(prefs);
+
+        refreshMappings();
+        prefs.registerOnSharedPreferenceChangeListener(mappingChangeListener);
+    }
 
-        axisMappings = buildAxisMappings();
-        buttonMappings = buildButtonMappings();
+    /**
+     * Stops following mapping preference changes.
+     */
+    void destroy() {
+        prefs.unregisterOnSharedPreferenceChangeListener(mappingChangeListener);
     }
 
     public String getName() {
@@ -213,6 +335,28 @@ public class FlypadInfo {
         }
     }
 
+    /**
+     * Gets the address of the controller this helper was last connected to, it is reconnected directly after a drop.
+     *
+     * @return the address, {@code null} if this helper never connected or the controller was forgotten
+     */
+    @Nullable
+    public String getLastAddress() {
+        return prefs.getString(getLastAddressKey(), null);
+    }
+
+    void setLastAddress(@Nullable final String address) {
+        if (address == null ? getLastAddress() != null : !address.equals(getLastAddress())) {
+            prefs.edit().putString(getLastAddressKey(), address).apply();
+            logEvent(Log.INFO, CLASS_NAME, "lastAddress=" + address);
+        }
+    }
+
+    private String getLastAddressKey() {
+        final int deviceId = flypadHelper != null ? flypadHelper.getDeviceId() : 0;
+        return deviceId == 0 ? LAST_ADDRESS_KEY : LAST_ADDRESS_KEY + "_" + deviceId;
+    }
+
     public String getSerial() {
         return serial;
     }
@@ -257,262 +401,261 @@ public class FlypadInfo {
         }
     }
 
+    void setDeviceInfo(@NonNull final FlypadTransport.DeviceInfo info, @NonNull final String value) {
+        switch (info) {
+            case SERIAL_NUMBER:
+                setSerial(value);
+                break;
+            case HARDWARE_VERSION:
+                setHardwareVersion(value);
+                break;
+            case FIRMWARE_VERSION:
+                setFirmwareVersion(value);
+                break;
+            case SOFTWARE_VERSION:
+                setSoftwareVersion(value);
+                break;
+        }
+    }
+
+    FlypadDeviceInfoCache getDeviceInfoCache() {
+        return deviceInfoCache;
+    }
+
     public short getBatteryLevel() {
-        return batteryLevel;
+        return FlypadReportDecoder.getBatteryLevel(state);
     }
 
-    void setBatteryLevel(final Bundle bundle, final short batteryLevel) {
-        if (batteryLevel != this.batteryLevel) {
-            this.batteryLevel = batteryLevel;
-            bundle.putShort("batteryLevel", batteryLevel);
-            logEvent(CLASS_NAME, "batteryLevel=" + batteryLevel);
-        }
+    long getState() {
+        return state;
     }
 
-    void setAxes(final Bundle bundle, final float axisLeftX, final float axisLeftY, final float axisRightX, final float axisRightY) {
+    /**
+     * Updates the controller state.
+     *
+     * @param state packed state word
+     *
+     * @return the fields that changed, see {@link FlypadReportDecoder#getChangedMask}
+     */
+    int setState(final long state) {
+        final int changed = FlypadReportDecoder.getChangedMask(this.state, state);
+        if (changed == 0) return 0;
 
-        boolean changed = false;
-        
-        if (axisLeftX != this.axisLeftX) {
-            this.axisLeftX = axisLeftX;
-            changed = true;
-            logEvent(CLASS_NAME, "axisLeftX=" + axisLeftX);
-        }
+        this.state = state;
 
-        if (axisLeftY != this.axisLeftY) {
-            this.axisLeftY = axisLeftY;
-            changed = true;
-            logEvent(CLASS_NAME, "axisLeftY=" + axisLeftY);
-        }
+        final int changedButtons = FlypadReportDecoder.getChangedButtons(changed);
 
-        if (axisRightX != this.axisRightX) {
-            this.axisRightX = axisRightX;
-            changed = true;
-            logEvent(CLASS_NAME, "axisRightX=" + axisRightX);
-        }
+        if (changedButtons != 0 && pressedOverrides.get() != 0) {
+            // a reported edge ends the override of the button
+            final long clear = (long) changedButtons << 32 | changedButtons;
+            long current;
 
-        if (axisRightY != this.axisRightY) {
-            this.axisRightY = axisRightY;
-            changed = true;
-            logEvent(CLASS_NAME, "axisRightY=" + axisRightY);
+            do {
+                current = pressedOverrides.get();
+            } while (!pressedOverrides.compareAndSet(current, current & ~clear));
         }
 
-        bundle.putBoolean("axesChanged", changed);
+        if (BuildConfig.DEBUG) {
+            if ((changed & FlypadReportDecoder.CHANGED_BATTERY) != 0) {
+                logEvent(CLASS_NAME, "batteryLevel=" + FlypadReportDecoder.getBatteryLevel(state));
+            }
+
+            for (FlypadAxis axis : AXES) {
+                if (FlypadReportDecoder.isAxisChanged(changed, axis)) {
+                    logEvent(CLASS_NAME, axis.name() + "=" + FlypadReportDecoder.getRawAxis(state, axis));
+                }
+            }
+
+            for (FlypadButton button : BUTTONS) {
+                if ((changedButtons & (1 << button.ordinal())) != 0) {
+                    logEvent(CLASS_NAME, String.format(Locale.US, "%s pressed=%b", button.name(), FlypadReportDecoder.isButtonPressed(state, button)));
+                }
+            }
+        }
 
-        bundle.putFloat("axisLeftX", axisLeftX);
-        bundle.putFloat("axisLeftY", axisLeftY);
-        bundle.putFloat("axisRightX", axisRightX);
-        bundle.putFloat("axisRightY", axisRightY);
+        return changed;
     }
 
-    void setButtons(final Bundle bundle,
-                           final boolean buttonA,
-                           final boolean buttonB,
-                           final boolean buttonUpDown,
-                           final boolean buttonOne,
-                           final boolean buttonTwo,
-                           final boolean buttonLeftBottom,
-                           final boolean buttonRightBottom,
-                           final boolean buttonLeftTop,
-                           final boolean buttonRightTop,
-                           final boolean buttonLeftThumb,
-                           final boolean buttonRightThumb) {
+    public boolean isButtonPressed(FlypadButtonAction action) {
+        return (getPressedButtons() & mappings.buttonsByAction[action.ordinal()]) != 0;
+    }
 
-        boolean changed = false;
-        
-        if (buttonA != this.buttonA) {
-            this.buttonA = buttonA;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.A, buttonA);
-        }
+    public boolean isMappedYawButtonPressed() {
+        return (getPressedButtons() & mappings.yawButtons) != 0;
+    }
 
-        if (buttonB != this.buttonB) {
-            this.buttonB = buttonB;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.B, buttonB);
-        }
+    // buttons of the controller state with the setPressed overrides applied
+    private int getPressedButtons() {
+        final int buttons = FlypadReportDecoder.getButtons(state);
+        final long overrides = pressedOverrides.get();
+        if (overrides == 0) return buttons;
 
-        if (buttonUpDown != this.buttonUpDown) {
-            this.buttonUpDown = buttonUpDown;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.UP_DOWN, buttonUpDown);
-        }
+        final int mask = (int) (overrides >>> 32);
+        return (buttons & ~mask) | ((int) overrides & mask);
+    }
 
-        if (buttonOne != this.buttonOne) {
-            this.buttonOne = buttonOne;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.ONE, buttonOne);
-        }
+    /**
+     * Gets the axis mappings of the current mappings snapshot. The returned list must not be modified.
+     */
+    public ArrayList<FlypadAxisMapping> getAxisMappings() {
+        return mappings.axisMappings;
+    }
 
-        if (buttonTwo != this.buttonTwo) {
-            this.buttonTwo = buttonTwo;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.TWO, buttonTwo);
-        }
+    /**
+     * Gets the button mappings of the current mappings snapshot. The returned list must not be modified.
+     */
+    public ArrayList<FlypadButtonMapping> getButtonMappings() {
+        return mappings.buttonMappings;
+    }
 
-        if (buttonLeftBottom != this.buttonLeftBottom) {
-            this.buttonLeftBottom = buttonLeftBottom;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.LEFT_BOTTOM, buttonLeftBottom);
-        }
+    public FlypadAxisMapping getAxisMappingByAxis(final FlypadAxis axis) {
+        return mappings.axisMappingsByAxis[axis.ordinal()];
+    }
 
-        if (buttonRightBottom != this.buttonRightBottom) {
-            this.buttonRightBottom = buttonRightBottom;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.RIGHT_BOTTOM, buttonRightBottom);
-        }
+    public FlypadButtonMapping getButtonMappingByButton(final FlypadButton button) {
+        return mappings.buttonMappingsByButton[button.ordinal()];
+    }
 
-        if (buttonLeftTop != this.buttonLeftTop) {
-            this.buttonLeftTop = buttonLeftTop;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.LEFT_TOP, buttonLeftTop);
-        }
+    /**
+     * Gets the axis mappings compiled for remapping axis values to flight controls.
+     * A new remapper is compiled by every {@link #refreshMappings()}.
+     *
+     * @return the current remapper
+     */
+    public FlypadAxisRemapper getAxisRemapper() {
+        return mappings.axisRemapper;
+    }
 
-        if (buttonRightTop != this.buttonRightTop) {
-            this.buttonRightTop = buttonRightTop;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.RIGHT_TOP, buttonRightTop);
-        }
+    /**
+     * Remaps axis values to flight controls using the current mappings, see {@link FlypadAxisRemapper#remap}.
+     */
+    public void remapAxes(final float leftX, final float leftY, final float rightX, final float rightY, @NonNull final float[] out) {
+        mappings.axisRemapper.remap(leftX, leftY, rightX, rightY, out);
+    }
 
-        if (buttonLeftThumb != this.buttonLeftThumb) {
-            this.buttonLeftThumb = buttonLeftThumb;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.LEFT_THUMB, buttonLeftThumb);
-        }
+    /**
+     * Rebuilds all mappings from the shared preferences on the calling thread and publishes them atomically.
+     * Changes to single mapping preferences are patched in automatically on the flypad thread.
+     * <p>
+     * Reads the shared preferences and may wait for them to load from disk, so it must not be called on the
+     * UI thread, use {@link #refreshMappingsAsync(Runnable)} there.
+     */
+    public synchronized void refreshMappings() {
+        final FlypadAxisMapping[] axisMappings = new FlypadAxisMapping[AXES.length];
+        final FlypadButtonMapping[] buttonMappings = new FlypadButtonMapping[BUTTONS.length];
 
-        if (buttonRightThumb != this.buttonRightThumb) {
-            this.buttonRightThumb = buttonRightThumb;
-            changed = true;
-            setButtonPressed(bundle, FlypadButton.RIGHT_THUMB, buttonRightThumb);
+        for (FlypadAxis axis : AXES) {
+            axisMappings[axis.ordinal()] = new FlypadAxisMapping(axis, readAxisAction(axis));
         }
-        
-        bundle.putBoolean("buttonsChanged", changed);
-    }
 
-    private void setButtonPressed(final Bundle bundle, final FlypadButton button, boolean pressed) {
-        for (FlypadButtonMapping mapping : buttonMappings) {
-            if (mapping.getButton() == button) {
-                mapping.setPressed(pressed);
-                break;
-            }
+        for (FlypadButton button : BUTTONS) {
+            buttonMappings[button.ordinal()] = new FlypadButtonMapping(button, readButtonAction(button));
         }
 
-        bundle.putBoolean(button.name(), pressed);
-        logEvent(CLASS_NAME, String.format(Locale.US, "%s pressed=%b",button.name(), pressed));
+        mappings = new Mappings(axisMappings, buttonMappings);
     }
 
-    public boolean isButtonPressed(FlypadButtonAction action) {
+    /**
+     * Rebuilds the mappings on the flypad thread, the current mappings stay in use until the new ones are published.
+     */
+    public void refreshMappingsAsync() {
+        refreshMappingsAsync(null);
+    }
 
-        for (FlypadButtonMapping mapping : buttonMappings) {
-            if (action == mapping.getAction() && mapping.isPressed()) {
-                return true;
-            }
+    /**
+     * Rebuilds the mappings on the flypad thread, the current mappings stay in use until the new ones are published.
+     *
+     * @param onRefreshed run on the main thread once the new mappings are published, may be null
+     */
+    public void refreshMappingsAsync(@Nullable final Runnable onRefreshed) {
+        if (flypadHelper == null) {
+            refreshMappings();
+            if (onRefreshed != null) onRefreshed.run();
+            return;
         }
 
-        return false;
+        flypadHelper.postToFlypadThread(() -> {
+            refreshMappings();
+            if (onRefreshed != null) new Handler(Looper.getMainLooper()).post(onRefreshed);
+        });
     }
 
-    public boolean isMappedYawButtonPressed() {
-
-        for (FlypadButtonMapping mapping : buttonMappings) {
-            if ((FlypadButtonAction.YAW_LEFT == mapping.getAction() || FlypadButtonAction.YAW_RIGHT == mapping.getAction()) && mapping.isPressed()) {
-                return true;
-            }
+    // called on the main thread, the preference is read and patched in on the flypad thread
+    private void onMappingPreferenceChanged(final SharedPreferences prefs, final String key) {
+        if (key == null) {
+            // preferences were cleared
+            refreshMappingsAsync();
+            return;
         }
 
-        return false;
+        final FlypadButton button = BUTTONS_BY_KEY.get(key);
+        final FlypadAxis axis = button == null ? AXES_BY_KEY.get(key) : null;
 
-    }
+        if (button == null && axis == null) return;
 
-    public ArrayList<FlypadAxisMapping> getAxisMappings() {
-        return axisMappings;
-    }
+        final Runnable patch = button != null ? () -> patchMapping(button) : () -> patchMapping(axis);
 
-    public ArrayList<FlypadButtonMapping> getButtonMappings() {
-        return buttonMappings;
+        if (flypadHelper == null) {
+            patch.run();
+        } else {
+            flypadHelper.postToFlypadThread(patch);
+        }
     }
 
-    public FlypadAxisMapping getAxisMappingByAxis(final FlypadAxis axis) {
-        for (FlypadAxisMapping mapping : axisMappings) {
-            if (mapping.getAxis() == axis) {
-                return mapping;
-            }
-        }
+    private synchronized void patchMapping(@NonNull final FlypadButton button) {
+        final Mappings current = mappings;
+        final FlypadButtonAction action = readButtonAction(button);
 
-        return null;
+        if (current.buttonMappingsByButton[button.ordinal()].getAction() == action) return;
+
+        mappings = new Mappings(current, new FlypadButtonMapping(button, action));
+        logEvent(Log.INFO, CLASS_NAME, button.name() + " mapped to " + action.name());
     }
 
-    public FlypadButtonMapping getButtonMappingByButton(final FlypadButton button) {
-        for (FlypadButtonMapping mapping : buttonMappings) {
-            if (mapping.getButton() == button) {
-                return mapping;
-            }
-        }
+    private synchronized void patchMapping(@NonNull final FlypadAxis axis) {
+        final Mappings current = mappings;
+        final FlypadAxisAction action = readAxisAction(axis);
 
-        return null;
-    }
+        if (current.axisMappingsByAxis[axis.ordinal()].getAction() == action) return;
 
-    public void refreshMappings() {
-        axisMappings = buildAxisMappings();
-        buttonMappings = buildButtonMappings();
+        mappings = new Mappings(current, new FlypadAxisMapping(axis, action));
+        logEvent(Log.INFO, CLASS_NAME, axis.name() + " mapped to " + action.name());
     }
 
-    private ArrayList<FlypadButtonMapping> buildButtonMappings() {
-        final ArrayList<FlypadButtonMapping> mappings = new ArrayList<>();
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
-
-        for (FlypadButton button : FlypadButton.values()) {
-            String actionName = prefs.getString("FLYPAD_" + button.name(), getFlypadButtonDefaultActionValue(button.name()));
+    @NonNull
+    private FlypadButtonAction readButtonAction(final FlypadButton button) {
+        final String actionName = prefs.getString(BUTTON_KEYS[button.ordinal()], null);
 
-            if (actionName.trim().length() == 0) {
-                actionName = getFlypadButtonDefaultActionValue(button.name());
-            }
+        if (actionName == null || actionName.trim().length() == 0) {
+            return getDefaultAction(button);
+        }
 
-            boolean found = false;
-            for (FlypadButtonAction action : FlypadButtonAction.values()) {
-                if (action.name().equals(actionName)) {
-                    mappings.add(new FlypadButtonMapping(button, action));
-                    found = true;
-                    break;
-                }
-            }
+        final FlypadButtonAction action = BUTTON_ACTIONS_BY_NAME.get(actionName);
 
-            if (!found) {
-                logEvent(Log.WARN, CLASS_NAME, "NOT FOUND Flypad button=" + button.name() + " action=" + actionName);
-                mappings.add(new FlypadButtonMapping(button, FlypadButtonAction.NO_ACTION));
-            }
+        if (action == null) {
+            logEvent(Log.WARN, CLASS_NAME, "NOT FOUND Flypad button=" + button.name() + " action=" + actionName);
+            return FlypadButtonAction.NO_ACTION;
         }
 
-        return mappings;
+        return action;
     }
 
-    private ArrayList<FlypadAxisMapping> buildAxisMappings() {
-        final ArrayList<FlypadAxisMapping> mappings = new ArrayList<>();
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+    @NonNull
+    private FlypadAxisAction readAxisAction(final FlypadAxis axis) {
+        final String actionName = prefs.getString(AXIS_KEYS[axis.ordinal()], null);
 
-        for (FlypadAxis axis : FlypadAxis.values()) {
-            String actionName = prefs.getString("FLYPAD_" + axis.name(), getFlypadAxisDefaultActionValue(axis.name()));
-
-            if (actionName.trim().length() == 0) {
-                actionName = getFlypadAxisDefaultActionValue(axis.name());
-            }
+        if (actionName == null || actionName.trim().length() == 0) {
+            return getDefaultAction(axis);
+        }
 
-            boolean found = false;
-            for (FlypadAxisAction action : FlypadAxisAction.values()) {
-                if (action.name().equals(actionName)) {
-                    mappings.add(new FlypadAxisMapping(axis, action));
-                    found = true;
-                    break;
-                }
-            }
+        final FlypadAxisAction action = AXIS_ACTIONS_BY_NAME.get(actionName);
 
-            if (!found) {
-                logEvent(Log.WARN, CLASS_NAME, "NOT FOUND Flypad axis=" + axis.name() + " action=" + actionName);
-                mappings.add(new FlypadAxisMapping(axis, FlypadAxisAction.NO_ACTION));
-            }
+        if (action == null) {
+            logEvent(Log.WARN, CLASS_NAME, "NOT FOUND Flypad axis=" + axis.name() + " action=" + actionName);
+            return FlypadAxisAction.NO_ACTION;
         }
 
-        return mappings;
+        return action;
     }
 
     public static String[] getFlypadButtonEntries(final boolean formatted) {
@@ -562,76 +705,70 @@ public class FlypadInfo {
     }
 
     public static String getFlypadButtonDefaultActionValue(final String buttonName) {
-
-        FlypadButton button = null;
-
-        for (FlypadButton btn : FlypadButton.values()) {
-            if (btn.name().equals(buttonName)) {
-                button = btn;
-                break;
-            }
-        }
+        final FlypadButton button = BUTTONS_BY_NAME.get(buttonName);
 
         if (button == null) {
             logEvent(Log.WARN, CLASS_NAME, "Flypad button not found buttonName=" + buttonName + "]");
             return FlypadButtonAction.NO_ACTION.name();
         }
 
+        return getDefaultAction(button).name();
+    }
+
+    public static String getFlypadAxisDefaultActionValue(final String axisName) {
+        final FlypadAxis axis = AXES_BY_NAME.get(axisName);
+
+        if (axis == null) {
+            logEvent(Log.WARN, CLASS_NAME, "Flypad axis not found axisName=" + axisName + "]");
+            return FlypadAxisAction.NO_ACTION.name();
+        }
+
+        return getDefaultAction(axis).name();
+    }
+
+    @NonNull
+    private static FlypadButtonAction getDefaultAction(@NonNull final FlypadButton button) {
         switch (button) {
             case LEFT_THUMB:
-                return FlypadButtonAction.TOGGLE_BANKED_TURNS.name();
+                return FlypadButtonAction.TOGGLE_BANKED_TURNS;
             case RIGHT_THUMB:
-                return FlypadButtonAction.TOGGLE_HOVER_LOCK.name();
+                return FlypadButtonAction.TOGGLE_HOVER_LOCK;
             case ONE:
-                return FlypadButtonAction.TOGGLE_MAP.name();
+                return FlypadButtonAction.TOGGLE_MAP;
             case TWO:
-                return FlypadButtonAction.OPEN_SETTINGS.name();
+                return FlypadButtonAction.OPEN_SETTINGS;
             case A:
-                return FlypadButtonAction.TAKE_PICTURE.name();
+                return FlypadButtonAction.TAKE_PICTURE;
             case B:
-                return FlypadButtonAction.RECORD_VIDEO.name();
+                return FlypadButtonAction.RECORD_VIDEO;
             case UP_DOWN:
-                return FlypadButtonAction.TAKEOFF_OR_LAND.name();
+                return FlypadButtonAction.TAKEOFF_OR_LAND;
             case LEFT_TOP:
-                return FlypadButtonAction.TOGGLE_FLIGHT_PLAN.name();
+                return FlypadButtonAction.TOGGLE_FLIGHT_PLAN;
             case RIGHT_TOP:
-                return FlypadButtonAction.TOGGLE_TRACK_ME.name();
+                return FlypadButtonAction.TOGGLE_TRACK_ME;
             case LEFT_BOTTOM:
-                return FlypadButtonAction.CENTER_FIELD_OF_VIEW.name();
+                return FlypadButtonAction.CENTER_FIELD_OF_VIEW;
             case RIGHT_BOTTOM:
-                return FlypadButtonAction.ANIMATION.name();
+                return FlypadButtonAction.ANIMATION;
             default:
-                return FlypadButtonAction.NO_ACTION.name();
+                return FlypadButtonAction.NO_ACTION;
         }
     }
 
-    public static String getFlypadAxisDefaultActionValue(final String axisName) {
-        FlypadAxis axis = null;
-
-        for (FlypadAxis ax : FlypadAxis.values()) {
-            if (axisName.equals(ax.name())) {
-                axis = ax;
-                break;
-            }
-        }
-
-        if (axis == null) {
-            logEvent(Log.WARN, CLASS_NAME, "Flypad axis not found axisName=" + axisName + "]");
-            return FlypadAxisAction.NO_ACTION.name();
-        }
-
-
+    @NonNull
+    private static FlypadAxisAction getDefaultAction(@NonNull final FlypadAxis axis) {
         switch (axis) {
             case LEFT_X:
-                return FlypadAxisAction.YAW.name();
+                return FlypadAxisAction.YAW;
             case LEFT_Y:
-                return FlypadAxisAction.GAZ.name();
+                return FlypadAxisAction.GAZ;
             case RIGHT_X:
-                return FlypadAxisAction.ROLL.name();
+                return FlypadAxisAction.ROLL;
             case RIGHT_Y:
-                return FlypadAxisAction.PITCH.name();
+                return FlypadAxisAction.PITCH;
             default:
-                return FlypadAxisAction.NO_ACTION.name();
+                return FlypadAxisAction.NO_ACTION;
         }
     }
 }
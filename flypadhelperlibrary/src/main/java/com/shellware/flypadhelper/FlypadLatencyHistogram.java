@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory, log bucketed histogram of nanosecond latencies.
+ * <p>
+ * Every power of two is split into 16 linear sub-buckets, so a reported percentile is within
+ * 6.25% of the recorded value. Values from 0 to about 18 minutes are tracked, larger ones are
+ * clamped. Recording is lock-free, allocation-free and safe from any number of threads.
+ */
+public final class FlypadLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final long MAX_TRACKABLE = (1L << 40) - 1;
+    private static final int BUCKETS = indexOf(MAX_TRACKABLE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos latency in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        if (nanos > MAX_TRACKABLE) nanos = MAX_TRACKABLE;
+
+        counts.incrementAndGet(indexOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // retry until max holds the largest value
+        }
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} timestamp.
+     *
+     * @param startNanos start of the measured interval
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * Gets the latency at a given percentile.
+     *
+     * @param percentile percentile in range [0, 100], e.g. 99.9
+     *
+     * @return the upper bound of the bucket holding the requested percentile in nanoseconds,
+     *         never more than {@link #getMax()}, {@code 0} if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be within [0, 100]");
+        }
+
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        if (total == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+               + " p50=" + getP50()
+               + " p99=" + getP99()
+               + " p999=" + getP999()
+               + " max=" + getMax();
+    }
+
+    // values below 2 * SUB_BUCKETS get one bucket each, every following
+    // power of two is split into SUB_BUCKETS equally sized buckets
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKETS << 1) return (int) value;
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS << 1) return index;
+
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
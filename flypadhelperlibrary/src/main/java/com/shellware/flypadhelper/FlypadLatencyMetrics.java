@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Input latency histograms, one per pipeline stage.
+ * <p>
+ * Every stage measures the time from the arrival of a report in the GATT callback
+ * to the end of that stage, so the stages of one report add up rather than overlap.
+ */
+public final class FlypadLatencyMetrics {
+
+    public enum Stage {
+        DECODED,                    // report decoded and diffed on the GATT thread
+        HANDED_OFF,                 // report drained on the flypad thread
+        POSTED,                     // main thread runnable or frame callback started, once per report or frame
+        LISTENER_RETURNED,          // last MAIN_THREAD or FRAME_ALIGNED listener returned
+        DIRECT_LISTENER_RETURNED    // last DIRECT and raw listener returned on the decoding thread
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final FlypadLatencyHistogram[] histograms = new FlypadLatencyHistogram[STAGES.length];
+
+    FlypadLatencyMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new FlypadLatencyHistogram();
+        }
+    }
+
+    @NonNull
+    public FlypadLatencyHistogram getHistogram(@NonNull final Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    void record(@NonNull final Stage stage, final long arrivalNanos) {
+        histograms[stage.ordinal()].recordSince(arrivalNanos);
+    }
+
+    public void reset() {
+        for (FlypadLatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+
+        for (Stage stage : STAGES) {
+            sb.append(stage.name()).append(": ").append(histograms[stage.ordinal()]).append('\n');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Rolling statistics of the controller notification stream.
+ * <p>
+ * Fed from the GATT callback with the arrival time of every notification. Memory is constant and each
+ * notification costs O(1) under an uncontended lock, plus a scan of a few kilobytes once per second; snapshots
+ * only hold the lock while copying a few fields.
+ * Intervals are smoothed with a 1/16 exponential moving average, jitter follows RFC 3550 (smoothed
+ * absolute difference between consecutive intervals). The rate and the connection interval estimate
+ * are refreshed every second, the estimate is the most frequent inter-arrival time of the window in
+ * connection interval units, so neither notifications delivered back to back nor missed connection
+ * events skew it.
+ */
+public final class FlypadLinkMetrics {
+
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    // BLE connection intervals are multiples of 1.25 ms
+    private static final long CONNECTION_INTERVAL_UNIT_NANOS = 1_250_000L;
+
+    // longest BLE connection interval, 4 s, in connection interval units
+    private static final int MAX_CONNECTION_INTERVAL_UNITS = 3200;
+
+    private static final int MAX_REPORT_LENGTH = 20;
+
+    /** Immutable view of the link statistics at one point in time. */
+    public static final class Snapshot {
+        private final long durationNanos;
+        private final long notificationCount;
+        private final long duplicateCount;
+        private final double notificationsPerSecond;
+        private final double meanIntervalNanos;
+        private final double jitterNanos;
+        private final long longestGapNanos;
+        private final long connectionIntervalNanos;
+
+        private Snapshot(final long durationNanos, final long notificationCount, final long duplicateCount,
+                         final double notificationsPerSecond, final double meanIntervalNanos, final double jitterNanos,
+                         final long longestGapNanos, final long connectionIntervalNanos) {
+            this.durationNanos = durationNanos;
+            this.notificationCount = notificationCount;
+            this.duplicateCount = duplicateCount;
+            this.notificationsPerSecond = notificationsPerSecond;
+            this.meanIntervalNanos = meanIntervalNanos;
+            this.jitterNanos = jitterNanos;
+            this.longestGapNanos = longestGapNanos;
+            this.connectionIntervalNanos = connectionIntervalNanos;
+        }
+
+        /** Time between the first and the last notification of this connection. */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getNotificationCount() {
+            return notificationCount;
+        }
+
+        /** Notifications carrying exactly the same bytes as the one before. */
+        public long getDuplicateCount() {
+            return duplicateCount;
+        }
+
+        /** Notification rate over the last complete one second window. */
+        public double getNotificationsPerSecond() {
+            return notificationsPerSecond;
+        }
+
+        public double getMeanIntervalNanos() {
+            return meanIntervalNanos;
+        }
+
+        public double getJitterNanos() {
+            return jitterNanos;
+        }
+
+        public long getLongestGapNanos() {
+            return longestGapNanos;
+        }
+
+        /**
+         * Estimated BLE connection interval: the most frequent inter-arrival time of the last complete window,
+         * rounded to the 1.25 ms connection interval unit. Gaps under half a unit, from notifications sharing a
+         * connection event, are not counted. {@code 0} until a window completed.
+         */
+        public long getConnectionIntervalNanos() {
+            return connectionIntervalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "notifications=%d duplicates=%d rate=%.1f/s interval=%.2fms jitter=%.2fms longestGap=%.2fms connectionInterval=%.2fms",
+                                 notificationCount, duplicateCount, notificationsPerSecond, meanIntervalNanos / 1e6,
+                                 jitterNanos / 1e6, longestGapNanos / 1e6, connectionIntervalNanos / 1e6);
+        }
+    }
+
+    private long firstArrivalNanos;
+    private long lastArrivalNanos;
+    private long notificationCount;
+    private long duplicateCount;
+    private double meanIntervalNanos;
+    private double jitterNanos;
+    private long lastIntervalNanos;
+    private long longestGapNanos;
+
+    private long windowStartNanos;
+    private long windowCount;
+    // inter-arrival times of the window, indexed by rounded connection interval units
+    private final int[] windowIntervalCounts = new int[MAX_CONNECTION_INTERVAL_UNITS + 1];
+    private boolean windowHasIntervals;
+    private double notificationsPerSecond;
+    private long connectionIntervalNanos;
+
+    private final byte[] lastReport = new byte[MAX_REPORT_LENGTH];
+    private int lastReportLength = -1;
+
+    /**
+     * Records a notification.
+     *
+     * @param arrivalNanos {@link System#nanoTime()} when the notification arrived
+     * @param report       notification payload
+     */
+    synchronized void onNotification(final long arrivalNanos, @NonNull final byte[] report) {
+        if (notificationCount == 0) {
+            firstArrivalNanos = arrivalNanos;
+            windowStartNanos = arrivalNanos;
+        } else {
+            final long interval = arrivalNanos - lastArrivalNanos;
+
+            if (notificationCount == 1) {
+                meanIntervalNanos = interval;
+            } else {
+                meanIntervalNanos += (interval - meanIntervalNanos) / 16;
+                jitterNanos += (Math.abs(interval - lastIntervalNanos) - jitterNanos) / 16;
+            }
+
+            lastIntervalNanos = interval;
+            if (interval > longestGapNanos) longestGapNanos = interval;
+
+            final long units = Math.round((double) interval / CONNECTION_INTERVAL_UNIT_NANOS);
+            if (units > 0 && units <= MAX_CONNECTION_INTERVAL_UNITS) {
+                windowIntervalCounts[(int) units]++;
+                windowHasIntervals = true;
+            }
+        }
+
+        if (isDuplicate(report)) duplicateCount++;
+
+        lastArrivalNanos = arrivalNanos;
+        notificationCount++;
+        windowCount++;
+
+        final long windowNanos = arrivalNanos - windowStartNanos;
+
+        if (windowNanos >= WINDOW_NANOS) {
+            notificationsPerSecond = (windowCount - 1) * 1e9 / windowNanos;
+
+            if (windowHasIntervals) {
+                connectionIntervalNanos = mostFrequentUnits() * CONNECTION_INTERVAL_UNIT_NANOS;
+                Arrays.fill(windowIntervalCounts, 0);
+                windowHasIntervals = false;
+            }
+
+            // this notification opens the next window
+            windowStartNanos = arrivalNanos;
+            windowCount = 1;
+        }
+    }
+
+    // the shorter interval wins a tie, called holding the lock
+    private int mostFrequentUnits() {
+        int mode = 1;
+
+        for (int units = 2; units <= MAX_CONNECTION_INTERVAL_UNITS; units++) {
+            if (windowIntervalCounts[units] > windowIntervalCounts[mode]) mode = units;
+        }
+
+        return mode;
+    }
+
+    private boolean isDuplicate(@NonNull final byte[] report) {
+        final int length = Math.min(report.length, MAX_REPORT_LENGTH);
+
+        boolean duplicate = length == lastReportLength;
+        for (int i = 0; duplicate && i < length; i++) {
+            duplicate = report[i] == lastReport[i];
+        }
+
+        if (!duplicate) {
+            System.arraycopy(report, 0, lastReport, 0, length);
+            lastReportLength = length;
+        }
+
+        return duplicate;
+    }
+
+    /**
+     * Starts a new set of statistics, e.g. for a new connection.
+     */
+    synchronized void reset() {
+        firstArrivalNanos = 0;
+        lastArrivalNanos = 0;
+        notificationCount = 0;
+        duplicateCount = 0;
+        meanIntervalNanos = 0;
+        jitterNanos = 0;
+        lastIntervalNanos = 0;
+        longestGapNanos = 0;
+        windowStartNanos = 0;
+        windowCount = 0;
+        Arrays.fill(windowIntervalCounts, 0);
+        windowHasIntervals = false;
+        notificationsPerSecond = 0;
+        connectionIntervalNanos = 0;
+        Arrays.fill(lastReport, (byte) 0);
+        lastReportLength = -1;
+    }
+
+    /**
+     * Takes a consistent snapshot of the statistics. Safe from any thread.
+     *
+     * @return the current statistics
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        final long durationNanos;
+        final long notificationCount;
+        final long duplicateCount;
+        final double notificationsPerSecond;
+        final double meanIntervalNanos;
+        final double jitterNanos;
+        final long longestGapNanos;
+        final long connectionIntervalNanos;
+
+        synchronized (this) {
+            durationNanos = lastArrivalNanos - firstArrivalNanos;
+            notificationCount = this.notificationCount;
+            duplicateCount = this.duplicateCount;
+            notificationsPerSecond = this.notificationsPerSecond;
+            meanIntervalNanos = this.meanIntervalNanos;
+            jitterNanos = this.jitterNanos;
+            longestGapNanos = this.longestGapNanos;
+            connectionIntervalNanos = this.connectionIntervalNanos;
+        }
+
+        return new Snapshot(durationNanos, notificationCount, duplicateCount, notificationsPerSecond,
+                            meanIntervalNanos, jitterNanos, longestGapNanos, connectionIntervalNanos);
+    }
+}
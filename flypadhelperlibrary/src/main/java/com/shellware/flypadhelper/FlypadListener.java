@@ -19,6 +19,13 @@ public interface FlypadListener {
         UNKNOWN
     }
 
+    // how events reach a listener
+    enum DispatchMode {
+        MAIN_THREAD,    // every change is posted to the main thread as it is decoded
+        FRAME_ALIGNED,  // as MAIN_THREAD, but axis values are coalesced and delivered at most once per display frame
+        DIRECT          // called synchronously on the thread that decoded the report, must return quickly
+    }
+
     void onFlypadStateChanged(final FlypadHelper flypadHelper, final State newState, final State oldState);
     void onFlypadBatteryLevelChanged(final FlypadHelper flypadHelper, final short batteryLevel);
     void onFlypadAxisValuesChanged(final FlypadHelper flypadHelper, final float leftX, final float leftY, final float rightX, final float rightY);
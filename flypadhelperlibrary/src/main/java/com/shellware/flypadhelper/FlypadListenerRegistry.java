@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Copy-on-write listener registry.
+ * <p>
+ * Dispatch iterates an immutable array snapshot without locking, so listeners can be added or removed
+ * from any thread, including from inside a callback, without disturbing a dispatch in progress.
+ * Writers serialize among themselves only.
+ */
+final class FlypadListenerRegistry<T> {
+
+    private final T[] empty;
+    private volatile T[] listeners;
+
+    FlypadListenerRegistry(@NonNull final T[] empty) {
+        this.empty = empty;
+        listeners = empty;
+    }
+
+    /**
+     * Gets the current listeners. The returned array must not be modified.
+     *
+     * @return an immutable snapshot of the registered listeners
+     */
+    @NonNull
+    T[] snapshot() {
+        return listeners;
+    }
+
+    boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    boolean contains(@NonNull final T listener) {
+        return indexOf(listeners, listener) >= 0;
+    }
+
+    synchronized boolean add(@NonNull final T listener) {
+        final T[] current = listeners;
+        if (indexOf(current, listener) >= 0) return false;
+
+        final T[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+
+        listeners = updated;
+        return true;
+    }
+
+    synchronized boolean remove(@NonNull final T listener) {
+        final T[] current = listeners;
+        final int index = indexOf(current, listener);
+        if (index < 0) return false;
+
+        if (current.length == 1) {
+            listeners = empty;
+            return true;
+        }
+
+        final T[] updated = Arrays.copyOf(current, current.length - 1);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+
+        listeners = updated;
+        return true;
+    }
+
+    synchronized void clear() {
+        listeners = empty;
+    }
+
+    private static int indexOf(@NonNull final Object[] listeners, @NonNull final Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * In process transport simulating a controller, to run the pipeline without a Flypad.
+ * <p>
+ * Callbacks are delivered synchronously on the thread calling into the transport: discovery finds the
+ * simulated controller immediately while it is advertising, connecting brings it up straight to ready,
+ * and {@link #onReport} delivers a report as if it was notified. Link loss and Bluetooth being switched
+ * off are simulated with {@link #dropConnection()} and {@link #setAvailable}. Being a
+ * {@link FlypadReplay.ReportSink}, a capture can be replayed into it.
+ */
+public final class FlypadLoopbackTransport implements FlypadTransport, FlypadReplay.ReportSink {
+
+    public static final String DEFAULT_NAME = "Flypad Loopback";
+    public static final String DEFAULT_ADDRESS = "00:00:00:00:00:00";
+
+    private final String name;
+    private final String address;
+    private final Map<DeviceInfo, String> deviceInfo = new EnumMap<>(DeviceInfo.class);
+
+    private Callback callback;
+
+    private boolean available = true;
+    private boolean advertising = true;
+    private boolean discovering;
+    private ScanMode scanMode;
+    private boolean ready;
+
+    private long discoveryCount;
+    private long connectCount;
+    private long deviceInfoReadCount;
+
+    public FlypadLoopbackTransport() {
+        this(DEFAULT_NAME, DEFAULT_ADDRESS);
+    }
+
+    public FlypadLoopbackTransport(@NonNull final String name, @NonNull final String address) {
+        this.name = name;
+        this.address = address;
+
+        deviceInfo.put(DeviceInfo.SERIAL_NUMBER, "LOOPBACK");
+        deviceInfo.put(DeviceInfo.HARDWARE_VERSION, "0");
+        deviceInfo.put(DeviceInfo.FIRMWARE_VERSION, "0");
+        deviceInfo.put(DeviceInfo.SOFTWARE_VERSION, "0");
+    }
+
+    /** Changes a device information value reported on the next connection. */
+    public synchronized void setDeviceInfo(@NonNull final DeviceInfo info, @NonNull final String value) {
+        deviceInfo.put(info, value);
+    }
+
+    @Override
+    public synchronized void setCallback(@NonNull final Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public synchronized boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Simulates switching Bluetooth on or off. Switching it off drops the connection and stops discovery.
+     */
+    public synchronized void setAvailable(final boolean available) {
+        if (this.available == available) return;
+
+        this.available = available;
+
+        if (!available) {
+            discovering = false;
+            if (ready) dropConnection();
+        }
+
+        callback.onAvailabilityChanged(available);
+    }
+
+    /**
+     * Simulates the controller being switched on or off. While discovery is running it is found as soon as it advertises.
+     */
+    public synchronized void setAdvertising(final boolean advertising) {
+        this.advertising = advertising;
+        if (advertising && discovering) callback.onDeviceFound(name, address);
+    }
+
+    public synchronized boolean isDiscovering() {
+        return discovering;
+    }
+
+    /** Mode of the running or last discovery, {@code null} if discovery never ran. */
+    public synchronized ScanMode getScanMode() {
+        return scanMode;
+    }
+
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /** Number of times discovery was started so far. */
+    public synchronized long getDiscoveryCount() {
+        return discoveryCount;
+    }
+
+    /** Number of connections made so far. */
+    public synchronized long getConnectCount() {
+        return connectCount;
+    }
+
+    /** Number of times the device information was read so far. */
+    public synchronized long getDeviceInfoReadCount() {
+        return deviceInfoReadCount;
+    }
+
+    @Override
+    public synchronized void startDiscovery(@NonNull final ScanMode mode) {
+        if (!available) return;
+
+        discoveryCount++;
+        discovering = true;
+        scanMode = mode;
+        if (advertising) callback.onDeviceFound(name, address);
+    }
+
+    @Override
+    public synchronized void stopDiscovery() {
+        discovering = false;
+    }
+
+    @Override
+    public synchronized void connect(@NonNull final String address, final boolean readDeviceInfo) {
+        if (!available || !advertising || !this.address.equals(address)) {
+            callback.onDisconnected();
+            return;
+        }
+
+        connectCount++;
+        callback.onLinkUp();
+
+        ready = true;
+        callback.onReady();
+
+        if (readDeviceInfo) deliverDeviceInfo();
+    }
+
+    @Override
+    public synchronized void readDeviceInfo() {
+        if (ready) deliverDeviceInfo();
+    }
+
+    private void deliverDeviceInfo() {
+        deviceInfoReadCount++;
+
+        for (Map.Entry<DeviceInfo, String> entry : deviceInfo.entrySet()) {
+            callback.onDeviceInfo(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        ready = false;
+    }
+
+    /** Simulates losing the link to the controller. */
+    public synchronized void dropConnection() {
+        if (!ready) return;
+
+        ready = false;
+        callback.onDisconnected();
+    }
+
+    /**
+     * Delivers a report as if the controller notified it. Reports are discarded while not connected.
+     *
+     * @param timestampNanos arrival time of the report
+     * @param report         raw report
+     */
+    @Override
+    public synchronized void onReport(final long timestampNanos, @NonNull final byte[] report) {
+        if (ready) callback.onReport(timestampNanos, report);
+    }
+
+    @Override
+    public synchronized void close() {
+        discovering = false;
+        ready = false;
+    }
+}
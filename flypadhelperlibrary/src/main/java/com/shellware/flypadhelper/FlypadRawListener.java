@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+/**
+ * Receives the complete controller state once per report, as primitives.
+ * <p>
+ * Called synchronously on the thread that decoded the report, usually a binder thread,
+ * including for reports that changed nothing. Implementations must return quickly.
+ * Use the static accessors of {@link FlypadReportDecoder} to unpack the state word and
+ * {@link FlypadHelper#getAxis(long, FlypadInfo.FlypadAxis)} to get axis values scaled like
+ * listeners see them.
+ */
+public interface FlypadRawListener {
+
+    /**
+     * @param flypadHelper   helper that decoded the report
+     * @param state          packed state word, see {@link FlypadReportDecoder}
+     * @param changed        fields that changed since the previous report, see {@link FlypadReportDecoder#getChangedMask}
+     * @param timestampNanos {@link System#nanoTime()} when the report arrived
+     */
+    void onFlypadRawState(final FlypadHelper flypadHelper, final long state, final int changed, final long timestampNanos);
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.concurrent.locks.LockSupport;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Plays a capture back into a report pipeline, at the captured pace, faster or as fast as possible.
+ * <p>
+ * Reports are delivered on the calling thread with timestamps on the replay clock: the captured
+ * spacing divided by the speed, starting at {@link System#nanoTime()} when {@link #run} was called.
+ * At {@link #MAX_SPEED} reports are delivered back to back but keep their captured spacing, so
+ * timestamp driven stages such as {@link FlypadAxisPredictor} behave as they did live. Their timestamps
+ * then run ahead of {@link System#nanoTime()}, a sink measuring latency must not measure from them.
+ * Nothing here depends on Android, replays run on a plain JVM.
+ */
+public final class FlypadReplay {
+
+    public static final double ORIGINAL_SPEED = 1;
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    /** Receiver of replayed reports, e.g. {@link FlypadHelper} or a decoder in a test. */
+    public interface ReportSink {
+        void onReport(final long timestampNanos, @NonNull final byte[] report);
+    }
+
+    private final FlypadCaptureReader reader;
+    private final double speed;
+
+    /**
+     * @param reader capture to play, played from its current record
+     * @param speed  playback speed, {@link #ORIGINAL_SPEED}, a multiple of it or {@link #MAX_SPEED}
+     */
+    public FlypadReplay(@NonNull final FlypadCaptureReader reader, final double speed) {
+        if (!(speed > 0)) throw new IllegalArgumentException("speed must be greater than zero");
+
+        this.reader = reader;
+        this.speed = speed;
+    }
+
+    /**
+     * Plays the rest of the capture.
+     *
+     * @param sink receiver of the reports
+     *
+     * @return the number of reports played
+     *
+     * @throws InterruptedException if the calling thread was interrupted, playback stops at the current record
+     */
+    public long run(@NonNull final ReportSink sink) throws InterruptedException {
+        final long start = System.nanoTime();
+        final boolean paced = !Double.isInfinite(speed);
+
+        long first = 0;
+        long count = 0;
+
+        while (reader.next()) {
+            if (count == 0) first = reader.getTimestampNanos();
+
+            final long offset = reader.getTimestampNanos() - first;
+            final long due = start + (paced ? (long) (offset / speed) : offset);
+
+            if (paced) {
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    if (Thread.interrupted()) throw new InterruptedException();
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            if (Thread.interrupted()) throw new InterruptedException();
+
+            sink.onReport(due, reader.getReport());
+            count++;
+        }
+
+        return count;
+    }
+}
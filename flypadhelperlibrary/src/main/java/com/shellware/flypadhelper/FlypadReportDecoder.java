@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+import com.shellware.flypadhelper.FlypadInfo.FlypadButton;
+
+import java.nio.ByteBuffer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decodes a raw Flypad controller report into a packed 64 bit state word.
+ * <p>
+ * State word layout:
+ * <ul>
+ * <li>bits 0-7: battery level</li>
+ * <li>bits 8-18: one bit per {@link FlypadButton}, indexed by ordinal</li>
+ * <li>bits 24-55: one canonical raw byte per {@link FlypadAxis}, indexed by ordinal</li>
+ * </ul>
+ * Two state words can be compared field by field with a single XOR, {@link #getChangedMask}
+ * turns the difference into one bit per changed field.
+ * <p>
+ * Raw axis bytes are stored in their canonical form (see {@link FlypadAxisTable#canonicalOf})
+ * so an axis compares equal exactly when its scaled value is equal, e.g. stick movement
+ * inside a dead-zone is not reported as a change.
+ */
+public final class FlypadReportDecoder {
+
+    /** Number of bytes in a controller report. */
+    public static final int REPORT_LENGTH = 7;
+
+    static final int BATTERY_SHIFT = 0;
+    static final int BUTTONS_SHIFT = 8;
+    static final int AXES_SHIFT = 24;
+
+    public static final long BATTERY_MASK = 0xFFL << BATTERY_SHIFT;
+    public static final long BUTTONS_MASK = ((1L << FlypadButton.values().length) - 1) << BUTTONS_SHIFT;
+    public static final long AXES_MASK = 0xFFFFFFFFL << AXES_SHIFT;
+
+    /** State of a freshly started controller: empty battery, nothing pressed and both sticks centered. */
+    public static final long CENTERED_STATE = 0x7F7F7F7FL << AXES_SHIFT;
+
+    // changed mask layout: battery at bit 0, one bit per axis ordinal from bit 1
+    // and one bit per button ordinal at the same position as in the state word
+    static final int CHANGED_AXES_SHIFT = 1;
+
+    public static final int CHANGED_BATTERY = 1;
+    public static final int CHANGED_AXES = ((1 << FlypadAxis.values().length) - 1) << CHANGED_AXES_SHIFT;
+    public static final int CHANGED_BUTTONS = (int) BUTTONS_MASK;
+
+    // report byte offsets of each axis, indexed by FlypadAxis ordinal
+    private static final int[] AXIS_OFFSETS = new int[FlypadAxis.values().length];
+
+    // button bits contributed by report bytes 1 and 2, indexed by unsigned byte value
+    private static final int[] BUTTONS_BYTE_1 = new int[256];
+    private static final int[] BUTTONS_BYTE_2 = new int[256];
+
+    static {
+        AXIS_OFFSETS[FlypadAxis.LEFT_X.ordinal()] = 5;
+        AXIS_OFFSETS[FlypadAxis.LEFT_Y.ordinal()] = 6;
+        AXIS_OFFSETS[FlypadAxis.RIGHT_X.ordinal()] = 3;
+        AXIS_OFFSETS[FlypadAxis.RIGHT_Y.ordinal()] = 4;
+
+        for (int value = 0; value < 256; value++) {
+            BUTTONS_BYTE_1[value] = buttonBit(value, 1, FlypadButton.UP_DOWN)
+                    | buttonBit(value, 2, FlypadButton.ONE)
+                    | buttonBit(value, 4, FlypadButton.TWO)
+                    | buttonBit(value, 8, FlypadButton.B)
+                    | buttonBit(value, 16, FlypadButton.A)
+                    | buttonBit(value, 32, FlypadButton.RIGHT_TOP)
+                    | buttonBit(value, 64, FlypadButton.RIGHT_BOTTOM)
+                    | buttonBit(value, 128, FlypadButton.LEFT_TOP);
+
+            BUTTONS_BYTE_2[value] = buttonBit(value, 1, FlypadButton.LEFT_BOTTOM)
+                    | buttonBit(value, 2, FlypadButton.LEFT_THUMB)
+                    | buttonBit(value, 4, FlypadButton.RIGHT_THUMB);
+        }
+    }
+
+    private final FlypadAxisTable axisTable = new FlypadAxisTable();
+
+    private static int buttonBit(final int value, final int flag, final FlypadButton button) {
+        return (value & flag) == flag ? 1 << button.ordinal() : 0;
+    }
+
+    /**
+     * Decodes a controller report.
+     *
+     * @param report raw report as received from the controller notify characteristic
+     *
+     * @return the packed state word
+     */
+    public long decode(@NonNull final byte[] report) {
+        if (report.length < REPORT_LENGTH) {
+            throw new IllegalArgumentException("report must be at least " + REPORT_LENGTH + " bytes");
+        }
+
+        long state = (report[0] & 0xFFL) << BATTERY_SHIFT;
+        state |= (long) (BUTTONS_BYTE_1[report[1] & 0xFF] | BUTTONS_BYTE_2[report[2] & 0xFF]) << BUTTONS_SHIFT;
+
+        for (int axis = 0; axis < AXIS_OFFSETS.length; axis++) {
+            state |= (axisTable.canonicalOf(axis, report[AXIS_OFFSETS[axis]]) & 0xFFL) << (AXES_SHIFT + (axis << 3));
+        }
+
+        return state;
+    }
+
+    /**
+     * Decodes a controller report with predicted instead of measured axis positions.
+     *
+     * @param report         raw report as received from the controller notify characteristic
+     * @param predictor      predictor fed with the measured positions
+     * @param timestampNanos arrival time of the report
+     *
+     * @return the packed state word holding the predicted axes
+     */
+    public long decode(@NonNull final byte[] report, @NonNull final FlypadAxisPredictor predictor, final long timestampNanos) {
+        long state = decode(report) & ~AXES_MASK;
+
+        for (int axis = 0; axis < AXIS_OFFSETS.length; axis++) {
+            final int predicted = predictor.predict(axis, FlypadAxisTable.normalize(report[AXIS_OFFSETS[axis]]), timestampNanos);
+            state |= (axisTable.canonicalOf(axis, FlypadAxisTable.denormalize(predicted)) & 0xFFL) << (AXES_SHIFT + (axis << 3));
+        }
+
+        return state;
+    }
+
+    /**
+     * Decodes a controller report starting at the buffer's current position.
+     * The buffer position is left untouched.
+     *
+     * @param report buffer holding a raw report
+     *
+     * @return the packed state word
+     */
+    public long decode(@NonNull final ByteBuffer report) {
+        final int offset = report.position();
+
+        if (report.limit() - offset < REPORT_LENGTH) {
+            throw new IllegalArgumentException("report must be at least " + REPORT_LENGTH + " bytes");
+        }
+
+        long state = (report.get(offset) & 0xFFL) << BATTERY_SHIFT;
+        state |= (long) (BUTTONS_BYTE_1[report.get(offset + 1) & 0xFF] | BUTTONS_BYTE_2[report.get(offset + 2) & 0xFF]) << BUTTONS_SHIFT;
+
+        for (int axis = 0; axis < AXIS_OFFSETS.length; axis++) {
+            state |= (axisTable.canonicalOf(axis, report.get(offset + AXIS_OFFSETS[axis])) & 0xFFL) << (AXES_SHIFT + (axis << 3));
+        }
+
+        return state;
+    }
+
+    @NonNull
+    public FlypadAxisTable getAxisTable() {
+        return axisTable;
+    }
+
+    /**
+     * Gets the scaled value of an axis.
+     *
+     * @param state packed state word
+     * @param axis  axis to read
+     *
+     * @return the axis value scaled and conditioned through this decoder's axis table
+     */
+    public float getAxis(final long state, @NonNull final FlypadAxis axis) {
+        return axisTable.valueOf(axis, getRawAxis(state, axis));
+    }
+
+    public static short getBatteryLevel(final long state) {
+        return (byte) (state >>> BATTERY_SHIFT);
+    }
+
+    public static int getButtons(final long state) {
+        return (int) ((state & BUTTONS_MASK) >>> BUTTONS_SHIFT);
+    }
+
+    public static boolean isButtonPressed(final long state, @NonNull final FlypadButton button) {
+        return (state & (1L << (BUTTONS_SHIFT + button.ordinal()))) != 0;
+    }
+
+    public static byte getRawAxis(final long state, @NonNull final FlypadAxis axis) {
+        return (byte) (state >>> (AXES_SHIFT + (axis.ordinal() << 3)));
+    }
+
+    /**
+     * Computes which fields differ between two state words.
+     *
+     * @param previous previous state word
+     * @param current  current state word
+     *
+     * @return a mask of {@link #CHANGED_BATTERY}, one {@link #CHANGED_AXES} bit per changed axis
+     *         and one {@link #CHANGED_BUTTONS} bit per changed button, {@code 0} if nothing changed
+     */
+    public static int getChangedMask(final long previous, final long current) {
+        final long diff = previous ^ current;
+        if (diff == 0) return 0;
+
+        int changed = (int) (diff & BUTTONS_MASK);
+
+        if ((diff & BATTERY_MASK) != 0) changed |= CHANGED_BATTERY;
+
+        for (int axis = 0; axis < AXIS_OFFSETS.length; axis++) {
+            if (((diff >>> (AXES_SHIFT + (axis << 3))) & 0xFF) != 0) {
+                changed |= 1 << (CHANGED_AXES_SHIFT + axis);
+            }
+        }
+
+        return changed;
+    }
+
+    public static boolean isAxisChanged(final int changed, @NonNull final FlypadAxis axis) {
+        return (changed & (1 << (CHANGED_AXES_SHIFT + axis.ordinal()))) != 0;
+    }
+
+    /**
+     * Extracts the changed buttons from a changed mask.
+     *
+     * @param changed mask returned by {@link #getChangedMask}
+     *
+     * @return one bit per changed {@link FlypadButton} ordinal
+     */
+    public static int getChangedButtons(final int changed) {
+        return (changed & CHANGED_BUTTONS) >>> BUTTONS_SHIFT;
+    }
+}
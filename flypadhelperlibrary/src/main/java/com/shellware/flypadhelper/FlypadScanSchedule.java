@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import java.util.Locale;
+
+/**
+ * Scan duty cycle over time while looking for a controller.
+ * <p>
+ * A scan starts with a short low latency burst, which finds an advertising controller within a few
+ * hundred milliseconds, then steps back to a balanced scan and finally to low power windows separated
+ * by idle pauses, so a scan left running while no controller is around costs little battery. A phase
+ * of length {@code 0} is skipped, a phase of length {@link Long#MAX_VALUE} never ends and an idle pause
+ * of {@code 0} keeps the low power scan running.
+ * <p>
+ * Every phase change restarts the scan, and Android ignores an app's scans started beyond 5 within
+ * 30 seconds. {@link FlypadBleTransport} budgets its starts app-wide, across all controllers of a
+ * {@link FlypadGroup}, and defers a start over the budget until one is allowed, the running scan keeps
+ * its previous mode meanwhile. Short phases or frequent reconnects therefore stretch rather than fail,
+ * schedules changing phase less than every 6 seconds per controller do not run as configured.
+ */
+public final class FlypadScanSchedule {
+
+    public static final long DEFAULT_BURST_MILLIS = 5000;
+    public static final long DEFAULT_BALANCED_MILLIS = 25000;
+    public static final long DEFAULT_LOW_POWER_WINDOW_MILLIS = 10000;
+    public static final long DEFAULT_IDLE_MILLIS = 20000;
+
+    public static final FlypadScanSchedule DEFAULT = new FlypadScanSchedule(DEFAULT_BURST_MILLIS, DEFAULT_BALANCED_MILLIS,
+                                                                            DEFAULT_LOW_POWER_WINDOW_MILLIS, DEFAULT_IDLE_MILLIS);
+
+    /** A balanced scan running until a controller is found, the behaviour before scans were scheduled. */
+    public static final FlypadScanSchedule CONTINUOUS_BALANCED = new FlypadScanSchedule(0, Long.MAX_VALUE, DEFAULT_LOW_POWER_WINDOW_MILLIS, 0);
+
+    private final long burstMillis;
+    private final long balancedMillis;
+    private final long lowPowerWindowMillis;
+    private final long idleMillis;
+
+    /**
+     * @param burstMillis          length of the low latency burst, {@code 0} skips it
+     * @param balancedMillis       length of the balanced scan following the burst, {@code 0} skips it
+     * @param lowPowerWindowMillis length of each low power scan window, must be positive
+     * @param idleMillis           pause between low power windows, {@code 0} scans without pausing
+     */
+    public FlypadScanSchedule(final long burstMillis, final long balancedMillis, final long lowPowerWindowMillis, final long idleMillis) {
+        if (burstMillis < 0) throw new IllegalArgumentException("burstMillis must not be negative");
+        if (balancedMillis < 0) throw new IllegalArgumentException("balancedMillis must not be negative");
+        if (lowPowerWindowMillis <= 0) throw new IllegalArgumentException("lowPowerWindowMillis must be positive");
+        if (idleMillis < 0) throw new IllegalArgumentException("idleMillis must not be negative");
+
+        this.burstMillis = burstMillis;
+        this.balancedMillis = balancedMillis;
+        this.lowPowerWindowMillis = lowPowerWindowMillis;
+        this.idleMillis = idleMillis;
+    }
+
+    public long getBurstMillis() {
+        return burstMillis;
+    }
+
+    public long getBalancedMillis() {
+        return balancedMillis;
+    }
+
+    public long getLowPowerWindowMillis() {
+        return lowPowerWindowMillis;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "burst=%dms balanced=%dms lowPowerWindow=%dms idle=%dms",
+                             burstMillis, balancedMillis, lowPowerWindowMillis, idleMillis);
+    }
+}
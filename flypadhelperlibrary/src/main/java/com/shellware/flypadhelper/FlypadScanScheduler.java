@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+import static com.shellware.flypadhelper.FlypadHelper.logEvent;
+
+/**
+ * Runs a transport's discovery through the phases of a {@link FlypadScanSchedule} and measures
+ * how long it takes to find a controller. Phase changes run on the given handler.
+ * <p>
+ * Except for the getters, methods must be called on the handler's thread, so timers removed by {@link #stop()}
+ * or {@link #start()} never run afterwards. The scheduler is stopped until {@link #start()} and again after
+ * {@link #stop()} or {@link #onDeviceFound()}, while stopped the transport's discovery results still queued
+ * on the handler are ignored.
+ * <p>
+ * Discovery the transport fails to start is retried with an exponential backoff, at least as late
+ * as the transport asks for, while the phase keeps running.
+ */
+final class FlypadScanScheduler {
+    private static final String CLASS_NAME = FlypadScanScheduler.class.getSimpleName();
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30000;
+
+    enum Phase {
+        BURST,
+        BALANCED,
+        LOW_POWER,
+        IDLE
+    }
+
+    private final FlypadTransport transport;
+    private final Handler handler;
+
+    private final FlypadLatencyHistogram discoveryTimes = new FlypadLatencyHistogram();
+
+    private FlypadScanSchedule schedule = FlypadScanSchedule.DEFAULT;
+
+    // null while stopped
+    private Phase phase;
+    private long startNanos;
+
+    // failed starts since the phase was entered
+    private int failures;
+
+    private final Runnable phaseRunnable = this::onPhaseElapsed;
+    private final Runnable retryRunnable = this::onRetry;
+
+    FlypadScanScheduler(@NonNull final FlypadTransport transport, @NonNull final Handler handler) {
+        this.transport = transport;
+        this.handler = handler;
+    }
+
+    @NonNull
+    synchronized FlypadScanSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Sets the schedule, a running scan restarts with its burst.
+     */
+    synchronized void setSchedule(@NonNull final FlypadScanSchedule schedule) {
+        this.schedule = schedule;
+        if (phase != null) start();
+    }
+
+    @NonNull
+    FlypadLatencyHistogram getDiscoveryTimes() {
+        return discoveryTimes;
+    }
+
+    synchronized boolean isScanning() {
+        return phase != null;
+    }
+
+    /**
+     * Starts scanning with the schedule's burst, a running scan starts over.
+     */
+    synchronized void start() {
+        handler.removeCallbacks(phaseRunnable);
+        handler.removeCallbacks(retryRunnable);
+
+        startNanos = System.nanoTime();
+        enter(Phase.BURST);
+    }
+
+    /**
+     * Stops scanning, does nothing while stopped.
+     */
+    synchronized void stop() {
+        if (phase != null) halt();
+    }
+
+    /**
+     * Stops scanning because a controller was found and records the time it took.
+     */
+    synchronized void onDeviceFound() {
+        // a result of a scan already stopped
+        if (phase == null) return;
+
+        final long discoveryNanos = System.nanoTime() - startNanos;
+
+        discoveryTimes.record(discoveryNanos);
+        logEvent(Log.INFO, CLASS_NAME, String.format(Locale.US, "found in %.1fms phase=%s", discoveryNanos / 1e6, phase));
+
+        halt();
+    }
+
+    /**
+     * Schedules another start of the current phase's discovery after the transport failed to start it.
+     *
+     * @param retryMillis how long the transport asked to wait at least, {@code 0} if it did not say
+     */
+    synchronized void onDiscoveryFailed(final long retryMillis) {
+        // a start made before the scan stopped or went idle
+        if (phase == null || phase == Phase.IDLE) return;
+
+        final long backoffMillis = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(failures, 5));
+        final long delayMillis = Math.max(retryMillis, backoffMillis);
+        failures++;
+
+        logEvent(Log.WARN, CLASS_NAME, "discovery failed phase=" + phase + " failures=" + failures + " retry in " + delayMillis + "ms");
+
+        handler.removeCallbacks(retryRunnable);
+        handler.postDelayed(retryRunnable, delayMillis);
+    }
+
+    // removed when the scan stops or enters a phase, including idle
+    private synchronized void onRetry() {
+        transport.startDiscovery(toScanMode(phase));
+    }
+
+    // removed when the scan stops or starts over
+    private synchronized void onPhaseElapsed() {
+        switch (phase) {
+            case BURST:
+                enter(Phase.BALANCED);
+                break;
+            case LOW_POWER:
+                enter(Phase.IDLE);
+                break;
+            default:
+                enter(Phase.LOW_POWER);
+                break;
+        }
+    }
+
+    // enters a phase, skipping those of length 0, called holding the lock
+    private void enter(@NonNull Phase next) {
+        if (next == Phase.BURST && schedule.getBurstMillis() == 0) next = Phase.BALANCED;
+        if (next == Phase.BALANCED && schedule.getBalancedMillis() == 0) next = Phase.LOW_POWER;
+
+        final long millis;
+
+        switch (next) {
+            case BURST:
+                millis = schedule.getBurstMillis();
+                break;
+            case BALANCED:
+                millis = schedule.getBalancedMillis();
+                break;
+            case LOW_POWER:
+                millis = schedule.getIdleMillis() == 0 ? Long.MAX_VALUE : schedule.getLowPowerWindowMillis();
+                break;
+            default:
+                millis = schedule.getIdleMillis();
+                break;
+        }
+
+        logEvent(CLASS_NAME, "phase=" + next + " millis=" + millis);
+
+        handler.removeCallbacks(retryRunnable);
+        failures = 0;
+        phase = next;
+
+        if (next == Phase.IDLE) {
+            transport.stopDiscovery();
+        } else {
+            // a controller found right away is reported through the handler, after this phase is set up
+            transport.startDiscovery(toScanMode(next));
+        }
+
+        if (millis != Long.MAX_VALUE) handler.postDelayed(phaseRunnable, millis);
+    }
+
+    // called holding the lock while scanning
+    private void halt() {
+        handler.removeCallbacks(phaseRunnable);
+        handler.removeCallbacks(retryRunnable);
+        phase = null;
+
+        transport.stopDiscovery();
+    }
+
+    @NonNull
+    private static FlypadTransport.ScanMode toScanMode(@NonNull final Phase phase) {
+        switch (phase) {
+            case BURST:
+                return FlypadTransport.ScanMode.LOW_LATENCY;
+            case BALANCED:
+                return FlypadTransport.ScanMode.BALANCED;
+            default:
+                return FlypadTransport.ScanMode.LOW_POWER;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fixed set of dispatch threads shared by the helpers of a {@link FlypadGroup}.
+ * <p>
+ * Each helper is pinned to one thread, handed out round robin, so the reports of one controller
+ * stay in order while several controllers share the threads. Threads are started on first use
+ * and quit once the last helper released the pool.
+ */
+final class FlypadThreadPool {
+
+    private final String name;
+    private final HandlerThread[] threads;
+
+    private int next;
+    private int users;
+    private boolean quit;
+
+    /**
+     * @param name thread name, numbered when there is more than one thread
+     * @param size number of threads
+     */
+    FlypadThreadPool(@NonNull final String name, final int size) {
+        if (size < 1) throw new IllegalArgumentException("size must be at least 1");
+
+        this.name = name;
+        this.threads = new HandlerThread[size];
+    }
+
+    int size() {
+        return threads.length;
+    }
+
+    @NonNull
+    synchronized Looper acquire() {
+        if (quit) throw new IllegalStateException("thread pool already quit");
+
+        final int index = next;
+        next = (next + 1) % threads.length;
+
+        if (threads[index] == null) {
+            threads[index] = new HandlerThread(threads.length == 1 ? name : name + "-" + index, Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            threads[index].start();
+        }
+
+        users++;
+        return threads[index].getLooper();
+    }
+
+    synchronized void release() {
+        if (users == 0 || --users > 0) return;
+
+        quit = true;
+
+        for (HandlerThread thread : threads) {
+            if (thread != null) thread.quitSafely();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Link between {@link FlypadHelper} and a controller: discovery, connection, device information
+ * and the report notification stream.
+ * <p>
+ * The helper drives the connection state machine, transports only carry out its requests and report
+ * back through {@link Callback}. {@link FlypadBleTransport} talks to a real Flypad over Bluetooth LE,
+ * {@link FlypadLoopbackTransport} simulates one in process so the pipeline can run without hardware.
+ */
+public interface FlypadTransport {
+
+    // how aggressively discovery looks for controllers, trading discovery time for power
+    enum ScanMode {
+        LOW_POWER,
+        BALANCED,
+        LOW_LATENCY
+    }
+
+    // device information read after connecting
+    enum DeviceInfo {
+        SERIAL_NUMBER,
+        HARDWARE_VERSION,
+        FIRMWARE_VERSION,
+        SOFTWARE_VERSION
+    }
+
+    /**
+     * Receives transport events. {@link #onReport} is called on the thread delivering the notification,
+     * a binder thread for Bluetooth, and must return quickly. The other methods are called on binder threads,
+     * the main thread or the thread that called into the transport, and may run concurrently with each other
+     * and with {@link #onReport}. Implementations hand them over to a thread of their own.
+     */
+    interface Callback {
+
+        /** The transport became usable or unusable, e.g. Bluetooth was switched on or off. */
+        void onAvailabilityChanged(final boolean available);
+
+        /** A controller was discovered while discovery was running. */
+        void onDeviceFound(@NonNull final String name, @NonNull final String address);
+
+        /**
+         * Discovery could not be started or stopped running, e.g. the platform refused the scan
+         * or the app started too many scans recently.
+         *
+         * @param retryMillis how long to wait at least before starting discovery again, {@code 0} if unknown
+         */
+        void onDiscoveryFailed(final long retryMillis);
+
+        /** The link to the controller is up, reports are being enabled. */
+        void onLinkUp();
+
+        void onDeviceInfo(@NonNull final DeviceInfo info, @NonNull final String value);
+
+        /** Report notifications are enabled, the controller is fully connected. Requested device information follows. */
+        void onReady();
+
+        /**
+         * A report notification arrived.
+         *
+         * @param timestampNanos {@link System#nanoTime()} when the notification arrived
+         * @param report         raw notification payload, only valid during the call
+         */
+        void onReport(final long timestampNanos, @NonNull final byte[] report);
+
+        /** The link was lost, or a connection attempt failed. Not called after {@link #disconnect()}. */
+        void onDisconnected();
+    }
+
+    /** Sets the receiver of transport events, called once before any other method. */
+    void setCallback(@NonNull final Callback callback);
+
+    boolean isAvailable();
+
+    /**
+     * Starts looking for a controller, each one found is reported through {@link Callback#onDeviceFound}.
+     * Discovery already running continues with the new mode. A start that fails is reported through
+     * {@link Callback#onDiscoveryFailed}.
+     *
+     * @param mode scan duty cycle
+     */
+    void startDiscovery(@NonNull final ScanMode mode);
+
+    void stopDiscovery();
+
+    /**
+     * Connects to a discovered or previously connected controller. Progress is reported through {@link Callback#onLinkUp},
+     * {@link Callback#onReady} and {@link Callback#onDisconnected}.
+     *
+     * @param address        address reported by {@link Callback#onDeviceFound}, possibly in an earlier session
+     * @param readDeviceInfo {@code true} to read the device information as soon as reports are enabled,
+     *                       {@code false} to skip it, e.g. when the information is cached
+     */
+    void connect(@NonNull final String address, final boolean readDeviceInfo);
+
+    /**
+     * Reads the device information of the connected controller while reports keep flowing,
+     * values are reported through {@link Callback#onDeviceInfo}.
+     */
+    void readDeviceInfo();
+
+    /** Drops the current connection, if any, without calling {@link Callback#onDisconnected}. */
+    void disconnect();
+
+    /** Disconnects and releases the transport, it is not used afterwards. */
+    void close();
+}
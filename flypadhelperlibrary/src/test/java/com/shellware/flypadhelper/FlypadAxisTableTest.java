@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadAxis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The axis lookup table must give bit for bit the floats of the decodeAxis it replaced.
+ */
+public class FlypadAxisTableTest {
+
+    // report byte offsets indexed by FlypadAxis ordinal
+    private static final int[] AXIS_OFFSETS = {5, 6, 3, 4};
+
+    private static final int REPORTS = 4096;
+
+    // the ranges FlypadHelper used to scale with, kept as anonymous classes like the original
+    private final DoubleRange sourceRange = new DoubleRange() {
+        @Override
+        public double getLower() {
+            return -110;
+        }
+
+        @Override
+        public double getUpper() {
+            return 110;
+        }
+    };
+    private final DoubleRange targetRange = new DoubleRange() {
+        @Override
+        public double getLower() {
+            return -1;
+        }
+
+        @Override
+        public double getUpper() {
+            return 1;
+        }
+    };
+
+    @Test
+    public void everyRawValueMatchesDecodeAxis() {
+        final FlypadAxisTable table = new FlypadAxisTable();
+
+        for (FlypadAxis axis : FlypadAxis.values()) {
+            for (int raw = Byte.MIN_VALUE; raw <= Byte.MAX_VALUE; raw++) {
+                assertBitIdentical(axis + " raw=" + raw, decodeAxis((byte) raw), table.valueOf(axis, (byte) raw));
+            }
+        }
+    }
+
+    @Test
+    public void decodedReportsMatchDecodeAxis() {
+        final FlypadReportDecoder decoder = new FlypadReportDecoder();
+        final Random random = new Random(0x5EED);
+        final byte[] report = new byte[FlypadReportDecoder.REPORT_LENGTH];
+
+        for (int i = 0; i < REPORTS; i++) {
+            random.nextBytes(report);
+            final long state = decoder.decode(report);
+
+            for (FlypadAxis axis : FlypadAxis.values()) {
+                assertBitIdentical("report=" + i + " " + axis,
+                                   decodeAxis(report[AXIS_OFFSETS[axis.ordinal()]]), decoder.getAxis(state, axis));
+            }
+        }
+    }
+
+    @Test
+    public void rebuiltTableMatchesDecodeAxis() {
+        final FlypadAxisTable table = new FlypadAxisTable(DoubleRange.of(-1, 1), DoubleRange.of(0, 255));
+        table.rebuild(FlypadAxisTable.SOURCE_RANGE, FlypadAxisTable.TARGET_RANGE);
+
+        for (int raw = Byte.MIN_VALUE; raw <= Byte.MAX_VALUE; raw++) {
+            assertBitIdentical("raw=" + raw, decodeAxis((byte) raw), table.valueOf(FlypadAxis.LEFT_X, (byte) raw));
+        }
+    }
+
+    private static void assertBitIdentical(final String message, final float expected, final float actual) {
+        assertEquals(message, Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual));
+    }
+
+    // copy of the original FlypadHelper.decodeAxis
+    private float decodeAxis(final byte value) {
+        final int normal;
+
+        // normalize axis to range -127 to +127
+        if (value == -128) {
+            normal = 0;
+        } else {
+            if (value > -1) {
+                // left side
+                normal =  Math.abs(127 - value) * -1;
+            } else {
+                // right side
+                normal = value + 128;
+            }
+        }
+
+        // now scale it to float range -1 to +1
+        return (float) targetRange.scaleFrom(normal, sourceRange);
+    }
+}
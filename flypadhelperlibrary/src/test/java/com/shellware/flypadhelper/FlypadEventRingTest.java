@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlypadEventRingTest {
+
+    private static final int PRESSED = 1 << FlypadReportDecoder.BUTTONS_SHIFT;
+    private static final int AXIS = 1 << FlypadReportDecoder.CHANGED_AXES_SHIFT;
+
+    private final List<Integer> changes = new ArrayList<>();
+    private final FlypadEventRing.EventSink sink = (state, changed, timestampNanos) -> changes.add(changed);
+
+    @Test
+    public void drainsInArrivalOrder() {
+        final FlypadEventRing ring = new FlypadEventRing(4);
+
+        assertTrue(ring.offer(1, AXIS, 10));
+        assertTrue(ring.offer(2, PRESSED, 20));
+
+        assertEquals(2, ring.drain(sink));
+        assertEquals(AXIS, (int) changes.get(0));
+        assertEquals(PRESSED, (int) changes.get(1));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void droppedChangesRideAlongTheNextEvent() {
+        final FlypadEventRing ring = new FlypadEventRing(2);
+
+        ring.offer(1, AXIS, 10);
+        ring.offer(2, AXIS, 20);
+
+        // a button edge arriving while the ring is full
+        assertFalse(ring.offer(3, PRESSED, 30));
+        assertTrue(ring.hasPendingChanges());
+        assertEquals(1, ring.getDroppedCount());
+
+        ring.drain(sink);
+        changes.clear();
+
+        assertTrue(ring.offer(4, AXIS, 40));
+        assertFalse(ring.hasPendingChanges());
+
+        ring.drain(sink);
+        assertEquals(AXIS | PRESSED, (int) changes.get(0));
+    }
+
+    @Test
+    public void unchangedEventCarriesPendingChanges() {
+        final FlypadEventRing ring = new FlypadEventRing(2);
+
+        ring.offer(1, AXIS, 10);
+        ring.offer(2, AXIS, 20);
+        ring.offer(3, PRESSED, 30);
+        ring.drain(sink);
+        changes.clear();
+
+        ring.offer(3, 0, 40);
+
+        ring.drain(sink);
+        assertEquals(PRESSED, (int) changes.get(0));
+    }
+
+    @Test
+    public void droppedPressAndReleaseMergeIntoTheFinalState() {
+        final List<Long> states = new ArrayList<>();
+        final FlypadEventRing.EventSink stateSink = (state, changed, timestampNanos) -> {
+            states.add(state);
+            changes.add(changed);
+        };
+        final FlypadEventRing ring = new FlypadEventRing(2);
+
+        ring.offer(1, AXIS, 10);
+        ring.offer(2, AXIS, 20);
+
+        // press and release both dropped
+        assertFalse(ring.offer(PRESSED, PRESSED, 30));
+        assertFalse(ring.offer(0, PRESSED, 40));
+        assertEquals(2, ring.getDroppedCount());
+
+        ring.drain(stateSink);
+        states.clear();
+        changes.clear();
+
+        ring.offer(0, 0, 50);
+        ring.drain(stateSink);
+
+        // one change for the button, carrying the released state
+        assertEquals(PRESSED, (int) changes.get(0));
+        assertEquals(0, FlypadReportDecoder.getButtons(states.get(0)));
+    }
+}
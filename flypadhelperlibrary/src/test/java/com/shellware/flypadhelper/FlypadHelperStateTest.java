@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadListener.DispatchMode;
+import com.shellware.flypadhelper.FlypadListener.State;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Drives the connection state machine through a loopback transport and checks the states listeners see.
+ * The state machine runs on the flypad thread, states are collected by a direct listener running there.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class FlypadHelperStateTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final BlockingQueue<State> states = new LinkedBlockingQueue<>();
+
+    private FlypadLoopbackTransport transport;
+    private FlypadHelper flypadHelper;
+
+    @Before
+    public void setUp() {
+        transport = new FlypadLoopbackTransport();
+        flypadHelper = new FlypadHelper(RuntimeEnvironment.getApplication(), transport);
+
+        flypadHelper.addFlypadListener(new FlypadListener() {
+            @Override
+            public void onFlypadStateChanged(final FlypadHelper flypadHelper, final State newState, final State oldState) {
+                states.add(newState);
+            }
+
+            @Override
+            public void onFlypadBatteryLevelChanged(final FlypadHelper flypadHelper, final short batteryLevel) {
+            }
+
+            @Override
+            public void onFlypadAxisValuesChanged(final FlypadHelper flypadHelper, final float leftX, final float leftY, final float rightX, final float rightY) {
+            }
+
+            @Override
+            public void onFlypadButtonChanged(final FlypadHelper flypadHelper, final FlypadInfo.FlypadButton button, final FlypadInfo.FlypadButtonState state) {
+            }
+        }, DispatchMode.DIRECT);
+    }
+
+    @After
+    public void tearDown() {
+        flypadHelper.destroy();
+    }
+
+    @Test
+    public void scanConnectsToTheController() throws InterruptedException {
+        flypadHelper.startLeScan();
+
+        expect(State.SCANNING, State.CONNECTING, State.CONNECTED);
+        assertEquals(1, transport.getConnectCount());
+    }
+
+    @Test
+    public void droppedLinkReconnectsDirectly() throws InterruptedException {
+        flypadHelper.startLeScan();
+        expect(State.SCANNING, State.CONNECTING, State.CONNECTED);
+        final long discoveryCount = transport.getDiscoveryCount();
+
+        transport.dropConnection();
+
+        expect(State.DISCONNECTED, State.CONNECTING, State.CONNECTED);
+        assertEquals(2, transport.getConnectCount());
+        assertEquals(1, flypadHelper.getReconnectTimes().getCount());
+
+        // the connect completed before the fallback scan was due
+        assertEquals(discoveryCount, transport.getDiscoveryCount());
+    }
+
+    @Test
+    public void bluetoothOffAndOnReconnects() throws InterruptedException {
+        flypadHelper.startLeScan();
+        expect(State.SCANNING, State.CONNECTING, State.CONNECTED);
+
+        transport.setAvailable(false);
+        expect(State.DISCONNECTED, State.BLE_DISABLED);
+
+        transport.setAvailable(true);
+        expect(State.BLE_ENABLED, State.CONNECTING, State.CONNECTED);
+
+        assertEquals(2, transport.getConnectCount());
+        assertEquals(1, flypadHelper.getReconnectTimes().getCount());
+    }
+
+    @Test
+    public void stopLeScanDisconnectsAScanWithoutController() throws InterruptedException {
+        transport.setAdvertising(false);
+
+        flypadHelper.startLeScan();
+        expect(State.SCANNING);
+
+        flypadHelper.stopLeScan();
+        expect(State.DISCONNECTED);
+    }
+
+    private void expect(final State... expected) throws InterruptedException {
+        final List<State> seen = new ArrayList<>();
+
+        for (int i = 0; i < expected.length; i++) {
+            final State state = states.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("expected " + Arrays.toString(expected) + " but saw " + seen, state);
+            seen.add(state);
+        }
+
+        assertEquals(Arrays.asList(expected), seen);
+        assertEquals(expected[expected.length - 1], flypadHelper.getState());
+    }
+}
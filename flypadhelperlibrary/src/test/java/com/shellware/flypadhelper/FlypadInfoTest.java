@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017. Shell M. Shrader
+ */
+
+package com.shellware.flypadhelper;
+
+import com.shellware.flypadhelper.FlypadInfo.FlypadButton;
+import com.shellware.flypadhelper.FlypadInfo.FlypadButtonMapping;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that pressed states set on button mappings hold until the controller reports an edge of the button.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class FlypadInfoTest {
+
+    private FlypadInfo flypadInfo;
+    private FlypadButtonMapping a;
+    private FlypadButtonMapping b;
+
+    @Before
+    public void setUp() {
+        flypadInfo = new FlypadInfo(RuntimeEnvironment.getApplication(), null);
+        a = flypadInfo.getButtonMappings().get(FlypadButton.A.ordinal());
+        b = flypadInfo.getButtonMappings().get(FlypadButton.B.ordinal());
+    }
+
+    @Test
+    public void setPressedHoldsUntilTheButtonsNextEdge() {
+        a.setPressed(true);
+
+        assertTrue(a.isPressed());
+        assertTrue(flypadInfo.isButtonPressed(a.getAction()));
+        assertFalse(b.isPressed());
+
+        // an edge of another button keeps the override
+        flypadInfo.setState(withButtons(FlypadButton.B));
+        assertTrue(a.isPressed());
+        assertTrue(b.isPressed());
+
+        // the controller reports A pressed and released, the release wins
+        flypadInfo.setState(withButtons(FlypadButton.A, FlypadButton.B));
+        flypadInfo.setState(withButtons(FlypadButton.B));
+        assertFalse(a.isPressed());
+    }
+
+    @Test
+    public void setPressedFalseMasksAPressedButton() {
+        flypadInfo.setState(withButtons(FlypadButton.A));
+        a.setPressed(false);
+
+        assertFalse(a.isPressed());
+
+        flypadInfo.setState(withButtons());
+        flypadInfo.setState(withButtons(FlypadButton.A));
+        assertTrue(a.isPressed());
+    }
+
+    private static long withButtons(final FlypadButton... buttons) {
+        long state = FlypadReportDecoder.CENTERED_STATE & ~FlypadReportDecoder.BUTTONS_MASK;
+
+        for (FlypadButton button : buttons) {
+            state |= 1L << (FlypadReportDecoder.BUTTONS_SHIFT + button.ordinal());
+        }
+
+        return state;
+    }
+}